@@ -0,0 +1,395 @@
+package jagracar.kinect.containers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import processing.core.PApplet;
+import processing.opengl.PGL;
+import processing.opengl.PShader;
+
+/**
+ * Class used to draw a scan as an indexed triangle mesh. Each visible scan point is stored only once in the vertex
+ * arrays of a mesh buffer, and the triangles and the wireframe lines reference them with index arrays. The arrays are
+ * uploaded to the GPU the first time the mesh is drawn, and again after they are updated.
+ * 
+ * The triangles follow the same visibility and connectivity rules as the Scan triangle mesh. The wireframe is drawn as
+ * the triangle edges, using the same vertices, so it doesn't need the per triangle barycenter attribute
+ * 
+ * @author Javier Graciá Carpio (jagracar)
+ */
+public class IndexedMesh {
+
+	/**
+	 * The parent Processing applet
+	 */
+	protected PApplet p;
+
+	/**
+	 * The mesh buffer containing the vertices and the triangle indices
+	 */
+	protected MeshBuffer buffer;
+
+	/**
+	 * Array containing the vertex colors, stored consecutively as red, green, blue, alpha quadruplets between 0 and 1
+	 */
+	protected float[] colors;
+
+	/**
+	 * Array used to mark the triangle edges of each scan point when the wireframe is built. It's reused between updates
+	 */
+	protected byte[] wireEdges;
+
+	/**
+	 * The number of wireframe line indices
+	 */
+	protected int nLineIndices;
+
+	/**
+	 * Array containing the vertex indices of each wireframe line
+	 */
+	protected int[] lineIndices;
+
+	/**
+	 * The OpenGL buffer names for the positions, colors, normals, triangle indices and line indices
+	 */
+	protected IntBuffer glBuffers;
+
+	/**
+	 * True if the arrays changed since they were uploaded to the GPU
+	 */
+	protected boolean modified;
+
+	/**
+	 * Constructs an empty indexed mesh
+	 * 
+	 * @param p the parent Processing applet
+	 */
+	public IndexedMesh(PApplet p) {
+		this.p = p;
+		this.buffer = new MeshBuffer();
+		this.colors = new float[0];
+		this.wireEdges = new byte[0];
+		this.nLineIndices = 0;
+		this.lineIndices = new int[0];
+		this.glBuffers = null;
+		this.modified = true;
+	}
+
+	/**
+	 * Updates the mesh arrays with the points of a scan
+	 * 
+	 * @param scan the scan
+	 * @param addNormals add the points normals to the mesh if true
+	 * @param addColors add the points colors to the mesh if true. Otherwise the front color will be used
+	 * @param frontColor the color to use for all the vertices if the points colors are not added
+	 */
+	public void update(Scan scan, boolean addNormals, boolean addColors, int frontColor) {
+		// Fill the mesh buffer with the scan triangles
+		if (addColors) {
+			buffer.fillTriangles(scan, addNormals);
+		} else {
+			buffer.fillTriangles(scan, addNormals, frontColor);
+		}
+
+		// Convert the vertex colors to the format used by the shaders
+		int nVertices = buffer.nVertices;
+
+		if (colors.length < 4 * nVertices) {
+			colors = new float[4 * nVertices];
+		}
+
+		for (int vertex = 0; vertex < nVertices; vertex++) {
+			int color = addColors ? buffer.colors[vertex] : frontColor;
+			colors[4 * vertex] = ((color >> 16) & 0xff) / 255f;
+			colors[4 * vertex + 1] = ((color >> 8) & 0xff) / 255f;
+			colors[4 * vertex + 2] = (color & 0xff) / 255f;
+			colors[4 * vertex + 3] = ((color >> 24) & 0xff) / 255f;
+		}
+
+		// Mark the edges of the triangles to build the wireframe
+		int width = scan.width;
+
+		if (wireEdges.length != scan.nPoints) {
+			wireEdges = new byte[scan.nPoints];
+		} else {
+			Arrays.fill(wireEdges, (byte) 0);
+		}
+
+		for (int row = 0; row < scan.height - 1; row++) {
+			for (int index = row * width, end = index + width - 1; index < end; index++) {
+				int triangles = MeshBuffer.getCellTriangles(scan, index);
+
+				if ((triangles & MeshBuffer.TRIANGLE_UPPER_LEFT) != 0) {
+					wireEdges[index] |= KinectPoints.EDGE_RIGHT | KinectPoints.EDGE_DOWN
+							| KinectPoints.EDGE_ANTI_DIAGONAL;
+				} else if ((triangles & MeshBuffer.TRIANGLE_LOWER_LEFT) != 0) {
+					wireEdges[index] |= KinectPoints.EDGE_DIAGONAL | KinectPoints.EDGE_DOWN;
+					wireEdges[index + width] |= KinectPoints.EDGE_RIGHT;
+				}
+
+				if ((triangles & MeshBuffer.TRIANGLE_LOWER_RIGHT) != 0) {
+					wireEdges[index] |= KinectPoints.EDGE_ANTI_DIAGONAL;
+					wireEdges[index + 1] |= KinectPoints.EDGE_DOWN;
+					wireEdges[index + width] |= KinectPoints.EDGE_RIGHT;
+				} else if ((triangles & MeshBuffer.TRIANGLE_UPPER_RIGHT) != 0) {
+					wireEdges[index] |= KinectPoints.EDGE_RIGHT | KinectPoints.EDGE_DIAGONAL;
+					wireEdges[index + 1] |= KinectPoints.EDGE_DOWN;
+				}
+			}
+		}
+
+		// Add the wireframe lines
+		int[] vertexIndices = buffer.vertexIndices;
+		nLineIndices = 0;
+
+		for (int index = 0; index < scan.nPoints; index++) {
+			int edge = wireEdges[index];
+
+			if (edge != 0) {
+				if ((edge & KinectPoints.EDGE_RIGHT) != 0) {
+					addLine(vertexIndices, index, index + 1);
+				}
+
+				if ((edge & KinectPoints.EDGE_DOWN) != 0) {
+					addLine(vertexIndices, index, index + width);
+				}
+
+				if ((edge & KinectPoints.EDGE_DIAGONAL) != 0) {
+					addLine(vertexIndices, index, index + 1 + width);
+				}
+
+				if ((edge & KinectPoints.EDGE_ANTI_DIAGONAL) != 0) {
+					addLine(vertexIndices, index + 1, index + width);
+				}
+			}
+		}
+
+		modified = true;
+	}
+
+	/**
+	 * Adds a line to the wireframe line indices, growing the array if necessary
+	 * 
+	 * @param vertexIndices the vertex index of each scan point
+	 * @param index1 the first point index
+	 * @param index2 the second point index
+	 */
+	protected void addLine(int[] vertexIndices, int index1, int index2) {
+		if (nLineIndices + 2 > lineIndices.length) {
+			int[] newIndices = new int[Math.max(2 * lineIndices.length, 2 * 1024)];
+			System.arraycopy(lineIndices, 0, newIndices, 0, nLineIndices);
+			lineIndices = newIndices;
+		}
+
+		lineIndices[nLineIndices++] = vertexIndices[index1];
+		lineIndices[nLineIndices++] = vertexIndices[index2];
+	}
+
+	/**
+	 * Returns the number of vertices
+	 * 
+	 * @return the number of vertices
+	 */
+	public int getNumVertices() {
+		return buffer.nVertices;
+	}
+
+	/**
+	 * Returns the number of triangles
+	 * 
+	 * @return the number of triangles
+	 */
+	public int getNumTriangles() {
+		return buffer.nIndices / 3;
+	}
+
+	/**
+	 * Returns the number of wireframe lines
+	 * 
+	 * @return the number of wireframe lines
+	 */
+	public int getNumLines() {
+		return nLineIndices / 2;
+	}
+
+	/**
+	 * Draws the mesh triangles on the screen using the given shader
+	 * 
+	 * @param shader the shader that should be used to draw the mesh
+	 */
+	public void draw(PShader shader) {
+		draw(shader, false);
+	}
+
+	/**
+	 * Draws the mesh wireframe on the screen using the given shader
+	 * 
+	 * @param shader the shader that should be used to draw the wireframe
+	 */
+	public void drawWireframe(PShader shader) {
+		draw(shader, true);
+	}
+
+	/**
+	 * Draws the mesh triangles or the wireframe lines on the screen using the given shader. The shader is bound after
+	 * the current Processing matrices and lights are set, so they will be passed to the shader
+	 * 
+	 * @param shader the shader that should be used to draw the mesh
+	 * @param wireframe draw the wireframe lines if true, and the triangles otherwise
+	 */
+	protected void draw(PShader shader, boolean wireframe) {
+		if ((wireframe ? nLineIndices : buffer.nIndices) == 0) {
+			return;
+		}
+
+		PGL pgl = p.beginPGL();
+
+		// Upload the arrays to the GPU if necessary
+		if (glBuffers == null) {
+			glBuffers = IntBuffer.allocate(5);
+			pgl.genBuffers(5, glBuffers);
+			modified = true;
+		}
+
+		if (modified) {
+			uploadFloats(pgl, glBuffers.get(0), buffer.positions, 3 * buffer.nVertices);
+			uploadFloats(pgl, glBuffers.get(1), colors, 4 * buffer.nVertices);
+
+			if (buffer.normals != null) {
+				uploadFloats(pgl, glBuffers.get(2), buffer.normals, 3 * buffer.nVertices);
+			}
+
+			uploadInts(pgl, glBuffers.get(3), buffer.indices, buffer.nIndices);
+			uploadInts(pgl, glBuffers.get(4), lineIndices, nLineIndices);
+			modified = false;
+		}
+
+		// Bind the shader and the vertex attributes. The light attributes use the vertex colors as ambient color
+		shader.bind();
+		int positionLoc = bindAttribute(pgl, shader, "position", glBuffers.get(0), 3);
+		int colorLoc = bindAttribute(pgl, shader, "color", glBuffers.get(1), 4);
+		int ambientLoc = bindAttribute(pgl, shader, "ambient", glBuffers.get(1), 4);
+		int normalLoc = -1;
+
+		if (buffer.normals != null) {
+			normalLoc = bindAttribute(pgl, shader, "normal", glBuffers.get(2), 3);
+		} else {
+			setAttribute(pgl, shader, "normal", 0, 0, 1, 0);
+		}
+
+		setAttribute(pgl, shader, "specular", 0, 0, 0, 1);
+		setAttribute(pgl, shader, "emissive", 0, 0, 0, 1);
+		setAttribute(pgl, shader, "shininess", 1, 0, 0, 0);
+
+		// Draw the elements
+		if (wireframe) {
+			pgl.bindBuffer(PGL.ELEMENT_ARRAY_BUFFER, glBuffers.get(4));
+			pgl.drawElements(PGL.LINES, nLineIndices, PGL.UNSIGNED_INT, 0);
+		} else {
+			pgl.bindBuffer(PGL.ELEMENT_ARRAY_BUFFER, glBuffers.get(3));
+			pgl.drawElements(PGL.TRIANGLES, buffer.nIndices, PGL.UNSIGNED_INT, 0);
+		}
+
+		// Unbind everything
+		pgl.bindBuffer(PGL.ELEMENT_ARRAY_BUFFER, 0);
+		pgl.bindBuffer(PGL.ARRAY_BUFFER, 0);
+
+		for (int loc : new int[] { positionLoc, colorLoc, ambientLoc, normalLoc }) {
+			if (loc >= 0) {
+				pgl.disableVertexAttribArray(loc);
+			}
+		}
+
+		shader.unbind();
+		p.endPGL();
+	}
+
+	/**
+	 * Uploads a float array to a GPU buffer
+	 * 
+	 * @param pgl the PGL object
+	 * @param buffer the buffer name
+	 * @param array the array to upload
+	 * @param length the number of array elements to upload
+	 */
+	protected static void uploadFloats(PGL pgl, int buffer, float[] array, int length) {
+		FloatBuffer data = ByteBuffer.allocateDirect(4 * length).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		data.put(array, 0, length).rewind();
+		pgl.bindBuffer(PGL.ARRAY_BUFFER, buffer);
+		pgl.bufferData(PGL.ARRAY_BUFFER, 4 * length, data, PGL.STATIC_DRAW);
+		pgl.bindBuffer(PGL.ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Uploads an index array to a GPU buffer
+	 * 
+	 * @param pgl the PGL object
+	 * @param buffer the buffer name
+	 * @param array the array to upload
+	 * @param length the number of array elements to upload
+	 */
+	protected static void uploadInts(PGL pgl, int buffer, int[] array, int length) {
+		IntBuffer data = ByteBuffer.allocateDirect(4 * length).order(ByteOrder.nativeOrder()).asIntBuffer();
+		data.put(array, 0, length).rewind();
+		pgl.bindBuffer(PGL.ELEMENT_ARRAY_BUFFER, buffer);
+		pgl.bufferData(PGL.ELEMENT_ARRAY_BUFFER, 4 * length, data, PGL.STATIC_DRAW);
+		pgl.bindBuffer(PGL.ELEMENT_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Binds a GPU buffer to a shader vertex attribute
+	 * 
+	 * @param pgl the PGL object
+	 * @param shader the shader
+	 * @param name the attribute name
+	 * @param buffer the buffer name
+	 * @param size the number of components per vertex
+	 * @return the attribute location. It will be -1 if the shader doesn't use the attribute
+	 */
+	protected static int bindAttribute(PGL pgl, PShader shader, String name, int buffer, int size) {
+		int loc = pgl.getAttribLocation(shader.glProgram, name);
+
+		if (loc >= 0) {
+			pgl.bindBuffer(PGL.ARRAY_BUFFER, buffer);
+			pgl.vertexAttribPointer(loc, size, PGL.FLOAT, false, 0, 0);
+			pgl.enableVertexAttribArray(loc);
+		}
+
+		return loc;
+	}
+
+	/**
+	 * Sets a constant value for a shader vertex attribute
+	 * 
+	 * @param pgl the PGL object
+	 * @param shader the shader
+	 * @param name the attribute name
+	 * @param x the first component
+	 * @param y the second component
+	 * @param z the third component
+	 * @param w the fourth component
+	 */
+	protected static void setAttribute(PGL pgl, PShader shader, String name, float x, float y, float z, float w) {
+		int loc = pgl.getAttribLocation(shader.glProgram, name);
+
+		if (loc >= 0) {
+			pgl.disableVertexAttribArray(loc);
+			pgl.vertexAttrib4f(loc, x, y, z, w);
+		}
+	}
+
+	/**
+	 * Deletes the GPU buffers. The mesh can still be drawn, and the buffers will be created again
+	 */
+	public void dispose() {
+		if (glBuffers != null) {
+			PGL pgl = p.beginPGL();
+			pgl.deleteBuffers(5, glBuffers);
+			p.endPGL();
+			glBuffers = null;
+		}
+	}
+}
@@ -29,43 +29,13 @@ public class KinectHelper {
 	 * @return the scan average
 	 */
 	public static Scan averageScans(ArrayList<Scan> scanList) {
-		// Create an empty average scan with the same dimensions as the scans in the list
-		Scan firstScan = scanList.get(0);
-		Scan averageScan = new Scan(firstScan.p, firstScan.width, firstScan.height);
-
-		// Loop over the scans in the list and fill the average scan arrays
-		int[] counter = new int[averageScan.nPoints];
-		int[] red = new int[counter.length];
-		int[] green = new int[counter.length];
-		int[] blue = new int[counter.length];
+		ScanAccumulator accumulator = new ScanAccumulator(scanList.get(0).p);
 
 		for (Scan scan : scanList) {
-			averageScan.center.add(scan.center);
-
-			for (int index = 0; index < averageScan.nPoints; index++) {
-				if (scan.visibilityMask[index]) {
-					averageScan.points[index].add(scan.points[index]);
-					int color = scan.colors[index];
-					red[index] += (color >> 16) & 0xff;
-					green[index] += (color >> 8) & 0xff;
-					blue[index] += color & 0xff;
-					counter[index]++;
-				}
-			}
-		}
-
-		averageScan.center.div(scanList.size());
-
-		for (int index = 0; index < averageScan.nPoints; index++) {
-			if (counter[index] > 0) {
-				averageScan.points[index].div(counter[index]);
-				averageScan.colors[index] = ((red[index] / counter[index]) << 16)
-						| ((green[index] / counter[index]) << 8) | (blue[index] / counter[index]) | 0xff000000;
-				averageScan.visibilityMask[index] = true;
-			}
+			accumulator.add(scan);
 		}
 
-		return averageScan;
+		return accumulator.getScan();
 	}
 
 	/**
@@ -81,8 +51,8 @@ public class KinectHelper {
 		// Create an empty scan with the same center as the last slit added to the list
 		Slit slit = slitList.get(slitList.size() - 1);
 		boolean verticalSlits = slit.vertical;
-		int width = verticalSlits ? slitList.size() : slit.points.length;
-		int height = verticalSlits ? slit.points.length : slitList.size();
+		int width = verticalSlits ? slitList.size() : slit.nPoints;
+		int height = verticalSlits ? slit.nPoints : slitList.size();
 		Scan scan = new Scan(p, width, height);
 		scan.center.set(slit.center);
 
@@ -94,39 +64,52 @@ public class KinectHelper {
 			float cos = PApplet.cos(rotationAngle);
 			float sin = PApplet.sin(rotationAngle);
 
-			for (int j = 0; j < slit.points.length; j++) {
+			for (int j = 0; j < slit.nPoints; j++) {
 				if (slit.visibilityMask[j]) {
 					int index = verticalSlits ? i + j * width : j + i * width;
-					PVector point = scan.points[index];
-					point.set(slit.points[j]);
+					float x = slit.points[3 * j];
+					float y = slit.points[3 * j + 1];
+					float z = slit.points[3 * j + 2];
 
 					// Check if the slit points should be rotated or shifted
 					if (rotate) {
-						point.sub(slit.center);
+						x -= slit.center.x;
+						y -= slit.center.y;
+						z -= slit.center.z;
 
 						if (verticalSlits) {
-							point.set(cos * point.x - sin * point.z, point.y, sin * point.x + cos * point.z);
+							float xRotated = cos * x - sin * z;
+							z = sin * x + cos * z;
+							x = xRotated;
 						} else {
-							point.set(point.x, cos * point.y - sin * point.z, sin * point.y + cos * point.z);
+							float yRotated = cos * y - sin * z;
+							z = sin * y + cos * z;
+							y = yRotated;
 						}
 
-						point.add(slit.center);
+						x += slit.center.x;
+						y += slit.center.y;
+						z += slit.center.z;
 					} else {
 						if (verticalSlits) {
-							point.x += offset;
+							x += offset;
 						} else {
-							point.y += offset;
+							y += offset;
 						}
 					}
 
 					// Check if the slit points should be moved to have the same center
 					if (commonCenter) {
-						point.sub(slit.center);
-						point.add(scan.center);
+						x += scan.center.x - slit.center.x;
+						y += scan.center.y - slit.center.y;
+						z += scan.center.z - slit.center.z;
 					}
 
+					scan.points[3 * index] = x;
+					scan.points[3 * index + 1] = y;
+					scan.points[3 * index + 2] = z;
 					scan.colors[index] = slit.colors[j];
-					scan.visibilityMask[index] = true;
+					scan.visibilityMask.set(index);
 				}
 			}
 		}
@@ -148,10 +131,8 @@ public class KinectHelper {
 		PImage img = p.createImage(kp.width, kp.height, PApplet.RGB);
 		img.loadPixels();
 
-		for (int index = 0; index < kp.nPoints; index++) {
-			if (kp.visibilityMask[index]) {
-				img.pixels[index] = kp.colors[index];
-			}
+		for (int index = kp.visibilityMask.nextSetBit(0); index >= 0; index = kp.visibilityMask.nextSetBit(index + 1)) {
+			img.pixels[index] = kp.colors[index];
 		}
 
 		img.updatePixels();
@@ -173,8 +154,8 @@ public class KinectHelper {
 			int y = face.y + (int) (face.height / 2);
 			int index = x + y * kp.width;
 
-			if (kp.visibilityMask[index]) {
-				faceCenter = kp.points[index].copy();
+			if (kp.visibilityMask.get(index)) {
+				faceCenter = kp.getPoint(index);
 			}
 		}
 
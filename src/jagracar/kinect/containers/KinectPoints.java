@@ -1,5 +1,6 @@
 package jagracar.kinect.containers;
 
+import jagracar.kinect.util.ParallelHelper;
 import processing.core.PApplet;
 import processing.core.PImage;
 import processing.core.PVector;
@@ -11,6 +12,41 @@ import processing.core.PVector;
  */
 public class KinectPoints {
 
+	/**
+	 * The minimum number of rows that is worth to process on a separate processor core
+	 */
+	public static final int MIN_ROWS_PER_TASK = 8;
+
+	/**
+	 * The number of entries in the bilateral filter depth weights table
+	 */
+	public static final int RANGE_TABLE_SIZE = 256;
+
+	/**
+	 * The depth difference, in units of the depth sigma, where the bilateral filter depth weights are set to zero
+	 */
+	public static final float RANGE_TABLE_LIMIT = 3;
+
+	/**
+	 * Edge bit indicating that a point is connected to its right neighbor
+	 */
+	public static final byte EDGE_RIGHT = 1;
+
+	/**
+	 * Edge bit indicating that a point is connected to its lower neighbor
+	 */
+	public static final byte EDGE_DOWN = 2;
+
+	/**
+	 * Edge bit indicating that a point is connected to its lower right neighbor
+	 */
+	public static final byte EDGE_DIAGONAL = 4;
+
+	/**
+	 * Edge bit indicating that the right neighbor of a point is connected to its lower neighbor
+	 */
+	public static final byte EDGE_ANTI_DIAGONAL = 8;
+
 	/**
 	 * The parent Processing applet
 	 */
@@ -32,9 +68,9 @@ public class KinectPoints {
 	protected int nPoints;
 
 	/**
-	 * Array containing the points coordinates
+	 * Array containing the points coordinates, stored consecutively as x, y, z triplets
 	 */
-	protected PVector[] points;
+	protected float[] points;
 
 	/**
 	 * Array containing the points colors
@@ -42,15 +78,47 @@ public class KinectPoints {
 	protected int[] colors;
 
 	/**
-	 * Array containing the points visibility mask
+	 * The points visibility mask
 	 */
-	protected boolean[] visibilityMask;
+	protected VisibilityMask visibilityMask;
 
 	/**
 	 * Maximum separation between two consecutive points to consider them connected
 	 */
 	protected float maxPointSeparationSq = 120 * 120;
 
+	/**
+	 * Scratch array reused by the bilateral filter to store the filtered points coordinates
+	 */
+	protected float[] filterOutput;
+
+	/**
+	 * The points data generation. It's increased every time that the points coordinates or visibilities change, and
+	 * it's used to know if the data derived from the points is still valid
+	 */
+	protected int generation;
+
+	/**
+	 * The lower and upper corner limits of the visible points. They are only valid for the limits generation
+	 */
+	protected PVector[] limits;
+
+	/**
+	 * The points data generation used to calculate the limits
+	 */
+	protected int limitsGeneration = -1;
+
+	/**
+	 * Array containing the connectivity of each point with its neighbors in the grid cell that has the point in its
+	 * upper left corner, stored as edge bits. They are only valid for the edges generation
+	 */
+	protected byte[] edges;
+
+	/**
+	 * The points data generation used to calculate the edges
+	 */
+	protected int edgesGeneration = -1;
+
 	/**
 	 * Constructs an empty KinectPoints object with the specified dimensions
 	 * 
@@ -63,14 +131,9 @@ public class KinectPoints {
 		this.width = width;
 		this.height = height;
 		this.nPoints = this.width * this.height;
-		this.points = new PVector[this.nPoints];
+		this.points = new float[3 * this.nPoints];
 		this.colors = new int[this.nPoints];
-		this.visibilityMask = new boolean[this.nPoints];
-
-		// Initialize the points array
-		for (int index = 0; index < this.nPoints; index++) {
-			this.points[index] = new PVector();
-		}
+		this.visibilityMask = new VisibilityMask(this.nPoints);
 	}
 
 	/**
@@ -88,9 +151,9 @@ public class KinectPoints {
 		this.width = rgbImg.width / reductionFactor;
 		this.height = rgbImg.height / reductionFactor;
 		this.nPoints = this.width * this.height;
-		this.points = new PVector[this.nPoints];
+		this.points = new float[3 * this.nPoints];
 		this.colors = new int[this.nPoints];
-		this.visibilityMask = new boolean[this.nPoints];
+		this.visibilityMask = new VisibilityMask(this.nPoints);
 
 		// Populate the arrays
 		rgbImg.loadPixels();
@@ -99,9 +162,12 @@ public class KinectPoints {
 			for (int col = 0; col < this.width; col++) {
 				int index = col + row * this.width;
 				int indexOriginal = col * reductionFactor + row * reductionFactor * rgbImg.width;
-				this.points[index] = points[indexOriginal].copy();
+				PVector point = points[indexOriginal];
+				this.points[3 * index] = point.x;
+				this.points[3 * index + 1] = point.y;
+				this.points[3 * index + 2] = point.z;
 				this.colors[index] = rgbImg.pixels[indexOriginal];
-				this.visibilityMask[index] = depthMap[indexOriginal] > 0;
+				this.visibilityMask.set(index, depthMap[indexOriginal] > 0);
 			}
 		}
 
@@ -117,6 +183,24 @@ public class KinectPoints {
 	 * @param reductionFactor the scale reduction factor
 	 */
 	public void update(PVector[] pointsNew, PImage rgbImgNew, int[] depthMapNew, int reductionFactor) {
+		update(pointsNew, rgbImgNew, depthMapNew, reductionFactor, null);
+	}
+
+	/**
+	 * Updates the Kinect points with new Kinect data, constraining their visibilities to a cube delimited by some lower
+	 * and upper corner coordinates. The points are downsampled, constrained and their limits calculated in a single
+	 * pass over the Kinect data. The color image pixels are only read, so the image is not marked as modified
+	 * 
+	 * @param pointsNew the new Kinect 3D points
+	 * @param rgbImgNew the new Kinect color image
+	 * @param depthMapNew the new Kinect depth map
+	 * @param reductionFactor the scale reduction factor
+	 * @param corners an array with the lower and upper corners. It can be null if the points should not be constrained
+	 * @return a points array with the lower and upper corner limits of the visible points. Returns null if there are
+	 *         no visible points
+	 */
+	public PVector[] update(PVector[] pointsNew, PImage rgbImgNew, int[] depthMapNew, int reductionFactor,
+			PVector[] corners) {
 		reductionFactor = Math.max(1, reductionFactor);
 		int widthNew = rgbImgNew.width / reductionFactor;
 		int heightNew = rgbImgNew.height / reductionFactor;
@@ -126,29 +210,117 @@ public class KinectPoints {
 			width = widthNew;
 			height = heightNew;
 			nPoints = width * height;
-			points = new PVector[nPoints];
+			points = new float[3 * nPoints];
 			colors = new int[nPoints];
-			visibilityMask = new boolean[nPoints];
-
-			for (int index = 0; index < nPoints; index++) {
-				points[index] = new PVector();
-			}
+			visibilityMask = new VisibilityMask(nPoints);
 		}
 
-		// Update the arrays
+		// Get the constraint limits
+		boolean constrain = corners != null;
+		float xMinAllowed = constrain ? corners[0].x : 0;
+		float yMinAllowed = constrain ? corners[0].y : 0;
+		float zMinAllowed = constrain ? corners[0].z : 0;
+		float xMaxAllowed = constrain ? corners[1].x : 0;
+		float yMaxAllowed = constrain ? corners[1].y : 0;
+		float zMaxAllowed = constrain ? corners[1].z : 0;
+
+		// Update the arrays, building the visibility mask one word at a time
 		rgbImgNew.loadPixels();
+		int[] pixels = rgbImgNew.pixels;
+		long[] maskWords = visibilityMask.words;
+		long word = 0;
+		float xMin = Float.MAX_VALUE;
+		float yMin = Float.MAX_VALUE;
+		float zMin = Float.MAX_VALUE;
+		float xMax = -Float.MAX_VALUE;
+		float yMax = -Float.MAX_VALUE;
+		float zMax = -Float.MAX_VALUE;
 
 		for (int row = 0; row < height; row++) {
-			for (int col = 0; col < width; col++) {
-				int index = col + row * width;
-				int indexOriginal = col * reductionFactor + row * reductionFactor * rgbImgNew.width;
-				points[index].set(pointsNew[indexOriginal]);
-				colors[index] = rgbImgNew.pixels[indexOriginal];
-				visibilityMask[index] = depthMapNew[indexOriginal] > 0;
+			int indexOriginal = row * reductionFactor * rgbImgNew.width;
+
+			for (int col = 0, index = row * width; col < width; col++, index++, indexOriginal += reductionFactor) {
+				PVector point = pointsNew[indexOriginal];
+				float x = point.x;
+				float y = point.y;
+				float z = point.z;
+				points[3 * index] = x;
+				points[3 * index + 1] = y;
+				points[3 * index + 2] = z;
+				colors[index] = pixels[indexOriginal];
+
+				if (depthMapNew[indexOriginal] > 0 && (!constrain || ((x > xMinAllowed) && (x < xMaxAllowed)
+						&& (y > yMinAllowed) && (y < yMaxAllowed) && (z > zMinAllowed) && (z < zMaxAllowed)))) {
+					word |= 1L << index;
+
+					if (x < xMin) {
+						xMin = x;
+					}
+
+					if (x > xMax) {
+						xMax = x;
+					}
+
+					if (y < yMin) {
+						yMin = y;
+					}
+
+					if (y > yMax) {
+						yMax = y;
+					}
+
+					if (z < zMin) {
+						zMin = z;
+					}
+
+					if (z > zMax) {
+						zMax = z;
+					}
+				}
+
+				if ((index & 63) == 63) {
+					maskWords[index >>> 6] = word;
+					word = 0;
+				}
 			}
 		}
 
-		rgbImgNew.updatePixels();
+		// Save the last incomplete mask word
+		if ((nPoints & 63) != 0) {
+			maskWords[nPoints >>> 6] = word;
+		}
+
+		// Invalidate the derived data and save the new limits
+		invalidate();
+		limits = ((xMax - xMin) >= 0) ? new PVector[] { new PVector(xMin, yMin, zMin), new PVector(xMax, yMax, zMax) }
+				: null;
+		limitsGeneration = generation;
+
+		return copyLimits();
+	}
+
+	/**
+	 * Increases the points data generation, invalidating all the data that was derived from the points. It should be
+	 * called every time that the points coordinates or visibilities are modified
+	 */
+	protected void invalidate() {
+		generation++;
+	}
+
+	/**
+	 * Releases the scratch arrays used by the filters. They will be created again the next time they are needed
+	 */
+	public void releaseScratchArrays() {
+		filterOutput = null;
+	}
+
+	/**
+	 * Returns the points data generation. It changes every time that the points coordinates or visibilities change
+	 * 
+	 * @return the points data generation
+	 */
+	public int getGeneration() {
+		return generation;
 	}
 
 	/**
@@ -161,11 +333,9 @@ public class KinectPoints {
 		KinectPoints kp = new KinectPoints(p, width, height);
 
 		// Fill the arrays
-		for (int index = 0; index < nPoints; index++) {
-			kp.points[index].set(points[index]);
-			kp.colors[index] = colors[index];
-			kp.visibilityMask[index] = visibilityMask[index];
-		}
+		System.arraycopy(points, 0, kp.points, 0, points.length);
+		System.arraycopy(colors, 0, kp.colors, 0, nPoints);
+		kp.visibilityMask.set(visibilityMask);
 
 		// Set the rest of the variables
 		kp.maxPointSeparationSq = maxPointSeparationSq;
@@ -186,19 +356,51 @@ public class KinectPoints {
 		float yMax = corners[1].y;
 		float zMax = corners[1].z;
 
-		for (int index = 0; index < nPoints; index++) {
-			PVector point = points[index];
-			visibilityMask[index] &= (point.x > xMin) && (point.x < xMax) && (point.y > yMin) && (point.y < yMax)
-					&& (point.z > zMin) && (point.z < zMax);
+		// Only the visible points need to be checked
+		for (int index = visibilityMask.nextSetBit(0); index >= 0; index = visibilityMask.nextSetBit(index + 1)) {
+			float x = points[3 * index];
+			float y = points[3 * index + 1];
+			float z = points[3 * index + 2];
+
+			if (!((x > xMin) && (x < xMax) && (y > yMin) && (y < yMax) && (z > zMin) && (z < zMax))) {
+				visibilityMask.clear(index);
+			}
 		}
+
+		// Invalidate the derived data
+		invalidate();
 	}
 
 	/**
-	 * Calculates the corner limits that contain all the visible points
+	 * Calculates the corner limits that contain all the visible points. The limits are only recalculated if the points
+	 * changed since the last call
 	 * 
-	 * @return a points array with the lower and upper corner limits
+	 * @return a points array with the lower and upper corner limits. Returns null if there are no visible points
 	 */
 	public PVector[] calculateLimits() {
+		if (limitsGeneration != generation) {
+			limits = findLimits();
+			limitsGeneration = generation;
+		}
+
+		return copyLimits();
+	}
+
+	/**
+	 * Returns a copy of the saved limits, so they can be modified without affecting the saved values
+	 * 
+	 * @return a copy of the saved limits. Returns null if there are no visible points
+	 */
+	protected PVector[] copyLimits() {
+		return (limits != null) ? new PVector[] { limits[0].copy(), limits[1].copy() } : null;
+	}
+
+	/**
+	 * Finds the corner limits that contain all the visible points
+	 * 
+	 * @return a points array with the lower and upper corner limits. Returns null if there are no visible points
+	 */
+	protected PVector[] findLimits() {
 		float xMin = Float.MAX_VALUE;
 		float yMin = Float.MAX_VALUE;
 		float zMin = Float.MAX_VALUE;
@@ -206,33 +408,33 @@ public class KinectPoints {
 		float yMax = -Float.MAX_VALUE;
 		float zMax = -Float.MAX_VALUE;
 
-		for (int index = 0; index < nPoints; index++) {
-			if (visibilityMask[index]) {
-				PVector point = points[index];
+		for (int index = visibilityMask.nextSetBit(0); index >= 0; index = visibilityMask.nextSetBit(index + 1)) {
+			float x = points[3 * index];
+			float y = points[3 * index + 1];
+			float z = points[3 * index + 2];
 
-				if (point.x < xMin) {
-					xMin = point.x;
-				}
+			if (x < xMin) {
+				xMin = x;
+			}
 
-				if (point.x > xMax) {
-					xMax = point.x;
-				}
+			if (x > xMax) {
+				xMax = x;
+			}
 
-				if (point.y < yMin) {
-					yMin = point.y;
-				}
+			if (y < yMin) {
+				yMin = y;
+			}
 
-				if (point.y > yMax) {
-					yMax = point.y;
-				}
+			if (y > yMax) {
+				yMax = y;
+			}
 
-				if (point.z < zMin) {
-					zMin = point.z;
-				}
+			if (z < zMin) {
+				zMin = z;
+			}
 
-				if (point.z > zMax) {
-					zMax = point.z;
-				}
+			if (z > zMax) {
+				zMax = z;
 			}
 		}
 
@@ -244,6 +446,117 @@ public class KinectPoints {
 		}
 	}
 
+	/**
+	 * Smooths the points with a bilateral filter. Each visible point is replaced by the weighted average of the visible
+	 * points inside the kernel, where the weights decrease with the distance in the arrays and with the depth
+	 * difference to the central point, so the depth edges are preserved. The rows are processed in parallel
+	 * 
+	 * @param kernelSize the kernel size. Should be an odd number larger than 1
+	 * @param depthSigma the depth difference where the tap weights are reduced by a factor exp(-1/2)
+	 */
+	public void bilateralFilter(int kernelSize, float depthSigma) {
+		if (kernelSize > 1 && depthSigma > 0) {
+			// Make sure that the kernel size is an odd number
+			if (kernelSize % 2 == 0) {
+				kernelSize++;
+			}
+
+			// Create the spatial weights table
+			final int kernelMiddlePoint = (kernelSize - 1) / 2;
+			final int kernelWidth = kernelSize;
+			final float[] spaceWeights = new float[kernelSize * kernelSize];
+			float maxDistanceSq = PApplet.sq(kernelMiddlePoint);
+			float sigmaSq = PApplet.sq(kernelMiddlePoint / 2f);
+
+			for (int i = 0; i < kernelSize; i++) {
+				for (int j = 0; j < kernelSize; j++) {
+					float distanceSq = PApplet.sq(i - kernelMiddlePoint) + PApplet.sq(j - kernelMiddlePoint);
+
+					if (distanceSq <= maxDistanceSq) {
+						spaceWeights[j + i * kernelSize] = PApplet.exp(-distanceSq / (2 * sigmaSq));
+					}
+				}
+			}
+
+			// Create the depth weights table
+			final float[] rangeWeights = new float[RANGE_TABLE_SIZE];
+			final float rangeScale = RANGE_TABLE_SIZE / (RANGE_TABLE_LIMIT * depthSigma);
+
+			for (int i = 0; i < RANGE_TABLE_SIZE; i++) {
+				float depthDiff = (i + 0.5f) / rangeScale;
+				rangeWeights[i] = PApplet.exp(-PApplet.sq(depthDiff / depthSigma) / 2);
+			}
+
+			// Make sure that the scratch array has the correct size
+			if (filterOutput == null || filterOutput.length != points.length) {
+				filterOutput = new float[points.length];
+			}
+
+			// Filter the points
+			ParallelHelper.run(height, MIN_ROWS_PER_TASK, new ParallelHelper.RangeTask() {
+				public void run(int start, int end) {
+					for (int row = start; row < end; row++) {
+						int firstRow = Math.max(0, row - kernelMiddlePoint);
+						int lastRow = Math.min(height - 1, row + kernelMiddlePoint);
+
+						for (int col = 0; col < width; col++) {
+							int index = col + row * width;
+
+							if (!visibilityMask.get(index)) {
+								filterOutput[3 * index] = points[3 * index];
+								filterOutput[3 * index + 1] = points[3 * index + 1];
+								filterOutput[3 * index + 2] = points[3 * index + 2];
+								continue;
+							}
+
+							int firstCol = Math.max(0, col - kernelMiddlePoint);
+							int lastCol = Math.min(width - 1, col + kernelMiddlePoint);
+							float z = points[3 * index + 2];
+							float xSum = 0;
+							float ySum = 0;
+							float zSum = 0;
+							float weightsSum = 0;
+
+							for (int rowStep = firstRow; rowStep <= lastRow; rowStep++) {
+								int weightsOffset = (rowStep - row + kernelMiddlePoint) * kernelWidth - col
+										+ kernelMiddlePoint;
+
+								for (int colStep = firstCol; colStep <= lastCol; colStep++) {
+									int indexStep = colStep + rowStep * width;
+
+									if (visibilityMask.get(indexStep)) {
+										int rangeIndex = (int) (Math.abs(points[3 * indexStep + 2] - z) * rangeScale);
+
+										if (rangeIndex < RANGE_TABLE_SIZE) {
+											float weight = spaceWeights[weightsOffset + colStep];
+											weight *= rangeWeights[rangeIndex];
+											xSum += weight * points[3 * indexStep];
+											ySum += weight * points[3 * indexStep + 1];
+											zSum += weight * points[3 * indexStep + 2];
+											weightsSum += weight;
+										}
+									}
+								}
+							}
+
+							filterOutput[3 * index] = xSum / weightsSum;
+							filterOutput[3 * index + 1] = ySum / weightsSum;
+							filterOutput[3 * index + 2] = zSum / weightsSum;
+						}
+					}
+				}
+			});
+
+			// Update the points array, keeping the old array for the next filtering
+			float[] oldPoints = points;
+			points = filterOutput;
+			filterOutput = oldPoints;
+
+			// Invalidate the derived data
+			invalidate();
+		}
+	}
+
 	/**
 	 * Reduces the Kinect points resolution by a given factor
 	 * 
@@ -255,18 +568,20 @@ public class KinectPoints {
 			int widthNew = width / reductionFactor;
 			int heightNew = height / reductionFactor;
 			int nPointsNew = widthNew * heightNew;
-			PVector[] pointsNew = new PVector[nPointsNew];
+			float[] pointsNew = new float[3 * nPointsNew];
 			int[] colorsNew = new int[nPointsNew];
-			boolean[] visibilityMaskNew = new boolean[nPointsNew];
+			VisibilityMask visibilityMaskNew = new VisibilityMask(nPointsNew);
 
 			// Populate the arrays
 			for (int row = 0; row < heightNew; row++) {
 				for (int col = 0; col < widthNew; col++) {
 					int indexNew = col + row * widthNew;
 					int index = col * reductionFactor + row * reductionFactor * width;
-					pointsNew[indexNew] = points[index];
+					pointsNew[3 * indexNew] = points[3 * index];
+					pointsNew[3 * indexNew + 1] = points[3 * index + 1];
+					pointsNew[3 * indexNew + 2] = points[3 * index + 2];
 					colorsNew[indexNew] = colors[index];
-					visibilityMaskNew[indexNew] = visibilityMask[index];
+					visibilityMaskNew.set(indexNew, visibilityMask.get(index));
 				}
 			}
 
@@ -277,24 +592,100 @@ public class KinectPoints {
 			points = pointsNew;
 			colors = colorsNew;
 			visibilityMask = visibilityMaskNew;
+
+			// Invalidate the derived data
+			invalidate();
 		}
 	}
 
 	/**
 	 * Returns true if the two points are close enough to be considered connected
 	 * 
-	 * @param point1 the first point
-	 * @param point2 the second point
+	 * @param index1 the first point index
+	 * @param index2 the second point index
 	 * @return true if the points can be considered connected
 	 */
-	protected boolean connected(PVector point1, PVector point2) {
-		float dx = point1.x - point2.x;
-		float dy = point1.y - point2.y;
-		float dz = point1.z - point2.z;
+	protected boolean connected(int index1, int index2) {
+		float dx = points[3 * index1] - points[3 * index2];
+		float dy = points[3 * index1 + 1] - points[3 * index2 + 1];
+		float dz = points[3 * index1 + 2] - points[3 * index2 + 2];
 
 		return (dx * dx + dy * dy + dz * dz) < maxPointSeparationSq;
 	}
 
+	/**
+	 * Updates the edge bits of all the points if the points changed since they were calculated. The rows are processed
+	 * in parallel
+	 */
+	protected void updateEdges() {
+		if (edgesGeneration != generation || edges == null || edges.length != nPoints) {
+			// Create the edges array if necessary
+			if (edges == null || edges.length != nPoints) {
+				edges = new byte[nPoints];
+			}
+
+			// Calculate the edges
+			ParallelHelper.run(height, MIN_ROWS_PER_TASK, new ParallelHelper.RangeTask() {
+				public void run(int start, int end) {
+					calculateEdges(start, end);
+				}
+			});
+
+			edgesGeneration = generation;
+		}
+	}
+
+	/**
+	 * Calculates the edge bits of the points in a range of rows. Two points have an edge between them if they are
+	 * visible and connected
+	 * 
+	 * @param startRow the first row
+	 * @param endRow the last row plus one
+	 */
+	protected void calculateEdges(int startRow, int endRow) {
+		for (int row = startRow; row < endRow; row++) {
+			boolean lastRow = row == height - 1;
+
+			for (int col = 0; col < width; col++) {
+				int index = col + row * width;
+				boolean lastCol = col == width - 1;
+				boolean rightVisible = !lastCol && visibilityMask.get(index + 1);
+				boolean lowerVisible = !lastRow && visibilityMask.get(index + width);
+				int edge = 0;
+
+				if (visibilityMask.get(index)) {
+					if (rightVisible && connected(index, index + 1)) {
+						edge |= EDGE_RIGHT;
+					}
+
+					if (lowerVisible && connected(index, index + width)) {
+						edge |= EDGE_DOWN;
+					}
+
+					if (!lastCol && !lastRow && visibilityMask.get(index + 1 + width)
+							&& connected(index, index + 1 + width)) {
+						edge |= EDGE_DIAGONAL;
+					}
+				}
+
+				if (rightVisible && lowerVisible && connected(index + 1, index + width)) {
+					edge |= EDGE_ANTI_DIAGONAL;
+				}
+
+				edges[index] = (byte) edge;
+			}
+		}
+	}
+
+	/**
+	 * Draws a vertex at the given point position
+	 * 
+	 * @param index the point index
+	 */
+	protected void vertex(int index) {
+		p.vertex(points[3 * index], points[3 * index + 1], points[3 * index + 2]);
+	}
+
 	/**
 	 * Draws the Kinect points as pixels on the screen
 	 * 
@@ -305,12 +696,9 @@ public class KinectPoints {
 		p.strokeCap(PApplet.SQUARE);
 		p.strokeWeight(pixelSize);
 
-		for (int index = 0; index < nPoints; index++) {
-			if (visibilityMask[index]) {
-				PVector point = points[index];
-				p.stroke(colors[index]);
-				p.point(point.x, point.y, point.z);
-			}
+		for (int index = visibilityMask.nextSetBit(0); index >= 0; index = visibilityMask.nextSetBit(index + 1)) {
+			p.stroke(colors[index]);
+			p.point(points[3 * index], points[3 * index + 1], points[3 * index + 2]);
 		}
 
 		p.popStyle();
@@ -328,11 +716,8 @@ public class KinectPoints {
 		p.strokeWeight(pixelSize);
 		p.stroke(pixelColor);
 
-		for (int index = 0; index < nPoints; index++) {
-			if (visibilityMask[index]) {
-				PVector point = points[index];
-				p.point(point.x, point.y, point.z);
-			}
+		for (int index = visibilityMask.nextSetBit(0); index >= 0; index = visibilityMask.nextSetBit(index + 1)) {
+			p.point(points[3 * index], points[3 * index + 1], points[3 * index + 2]);
 		}
 
 		p.popStyle();
@@ -348,6 +733,9 @@ public class KinectPoints {
 		p.noStroke();
 		boolean bandStarted = false;
 
+		// Make sure that the edges are up to date
+		updateEdges();
+
 		for (int row = 0; row < height - 1; row += verticalGap) {
 			// Finish the band if we are starting a new row and the last shape was not closed
 			if (bandStarted) {
@@ -359,18 +747,16 @@ public class KinectPoints {
 				int index = col + row * width;
 
 				// Check if the point is valid
-				if (visibilityMask[index]) {
-					PVector point = points[index];
-
+				if (visibilityMask.get(index)) {
 					if (!bandStarted) {
 						// Start a new band
 						p.beginShape(PApplet.TRIANGLE_STRIP);
 						p.fill(colors[index]);
-						p.vertex(point.x, point.y, point.z);
+						vertex(index);
 						bandStarted = true;
-					} else if (connected(point, points[index - 1])) {
+					} else if ((edges[index - 1] & EDGE_RIGHT) != 0) {
 						p.fill(colors[index]);
-						p.vertex(point.x, point.y, point.z);
+						vertex(index);
 					} else {
 						p.endShape();
 						bandStarted = false;
@@ -383,30 +769,26 @@ public class KinectPoints {
 					// Check if the lower point is valid
 					int lowerIndex = index + width;
 
-					if (visibilityMask[lowerIndex]) {
-						PVector lowerPoint = points[lowerIndex];
-
-						if (connected(point, lowerPoint)) {
+					if (visibilityMask.get(lowerIndex)) {
+						if ((edges[index] & EDGE_DOWN) != 0) {
 							p.fill(colors[lowerIndex]);
-							p.vertex(lowerPoint.x, lowerPoint.y, lowerPoint.z);
+							vertex(lowerIndex);
 						} else {
 							p.fill(colors[index]);
-							p.vertex(point.x, point.y, point.z);
+							vertex(index);
 						}
 					} else {
 						p.fill(colors[index]);
-						p.vertex(point.x, point.y, point.z);
+						vertex(index);
 					}
 				} else if (bandStarted) {
 					// The point is not valid, let's see if we can use the lower point for the last point in the band
 					int lowerIndex = index + width;
 
-					if (visibilityMask[lowerIndex]) {
-						PVector lowerPoint = points[lowerIndex];
-
-						if (connected(lowerPoint, points[index - 1])) {
+					if (visibilityMask.get(lowerIndex)) {
+						if ((edges[index - 1] & EDGE_DIAGONAL) != 0) {
 							p.fill(colors[lowerIndex]);
-							p.vertex(lowerPoint.x, lowerPoint.y, lowerPoint.z);
+							vertex(lowerIndex);
 						}
 					}
 
@@ -437,6 +819,9 @@ public class KinectPoints {
 		p.fill(bandsColor);
 		boolean bandStarted = false;
 
+		// Make sure that the edges are up to date
+		updateEdges();
+
 		for (int row = 0; row < height - 1; row += verticalGap) {
 			// Finish the band if we are starting a new row and the last shape was not closed
 			if (bandStarted) {
@@ -448,16 +833,14 @@ public class KinectPoints {
 				int index = col + row * width;
 
 				// Check if the point is valid
-				if (visibilityMask[index]) {
-					PVector point = points[index];
-
+				if (visibilityMask.get(index)) {
 					if (!bandStarted) {
 						// Start a new band
 						p.beginShape(PApplet.TRIANGLE_STRIP);
-						p.vertex(point.x, point.y, point.z);
+						vertex(index);
 						bandStarted = true;
-					} else if (connected(point, points[index - 1])) {
-						p.vertex(point.x, point.y, point.z);
+					} else if ((edges[index - 1] & EDGE_RIGHT) != 0) {
+						vertex(index);
 					} else {
 						p.endShape();
 						bandStarted = false;
@@ -470,26 +853,22 @@ public class KinectPoints {
 					// Check if the lower point is valid
 					int lowerIndex = index + width;
 
-					if (visibilityMask[lowerIndex]) {
-						PVector lowerPoint = points[lowerIndex];
-
-						if (connected(point, lowerPoint)) {
-							p.vertex(lowerPoint.x, lowerPoint.y, lowerPoint.z);
+					if (visibilityMask.get(lowerIndex)) {
+						if ((edges[index] & EDGE_DOWN) != 0) {
+							vertex(lowerIndex);
 						} else {
-							p.vertex(point.x, point.y, point.z);
+							vertex(index);
 						}
 					} else {
-						p.vertex(point.x, point.y, point.z);
+						vertex(index);
 					}
 				} else if (bandStarted) {
 					// The point is not valid, let's see if we can use the lower point for the last point in the band
 					int lowerIndex = index + width;
 
-					if (visibilityMask[lowerIndex]) {
-						PVector lowerPoint = points[lowerIndex];
-
-						if (connected(lowerPoint, points[index - 1])) {
-							p.vertex(lowerPoint.x, lowerPoint.y, lowerPoint.z);
+					if (visibilityMask.get(lowerIndex)) {
+						if ((edges[index - 1] & EDGE_DIAGONAL) != 0) {
+							vertex(lowerIndex);
 						}
 					}
 
@@ -509,26 +888,21 @@ public class KinectPoints {
 	}
 
 	/**
-	 * Draws a line between two Kinect points if they are connected
+	 * Draws a line between two connected Kinect points
 	 * 
 	 * @param index1 the first point index
 	 * @param index2 the second point index
 	 * @param useColors use the points colors if true
 	 */
 	protected void drawLine(int index1, int index2, boolean useColors) {
-		PVector point1 = points[index1];
-		PVector point2 = points[index2];
-
-		if (connected(point1, point2)) {
-			if (useColors) {
-				p.stroke(colors[index1]);
-				p.vertex(point1.x, point1.y, point1.z);
-				p.stroke(colors[index2]);
-				p.vertex(point2.x, point2.y, point2.z);
-			} else {
-				p.vertex(point1.x, point1.y, point1.z);
-				p.vertex(point2.x, point2.y, point2.z);
-			}
+		if (useColors) {
+			p.stroke(colors[index1]);
+			vertex(index1);
+			p.stroke(colors[index2]);
+			vertex(index2);
+		} else {
+			vertex(index1);
+			vertex(index2);
 		}
 	}
 
@@ -543,22 +917,24 @@ public class KinectPoints {
 		p.strokeWeight(lineWeight);
 		p.beginShape(PApplet.LINES);
 
-		for (int row = 0; row < height - 1; row++) {
-			for (int col = 0; col < width - 1; col++) {
-				int index = col + row * width;
+		// Make sure that the edges are up to date
+		updateEdges();
 
-				if (visibilityMask[index]) {
-					if (visibilityMask[index + 1]) {
-						drawLine(index, index + 1, true);
-					}
+		for (int index = visibilityMask.nextSetBit(0); index >= 0 && index < nPoints - width; index = visibilityMask
+				.nextSetBit(index + 1)) {
+			if (index % width < width - 1) {
+				int edge = edges[index];
 
-					if (visibilityMask[index + width]) {
-						drawLine(index, index + width, true);
-					}
+				if ((edge & EDGE_RIGHT) != 0) {
+					drawLine(index, index + 1, true);
+				}
 
-					if (visibilityMask[index + 1 + width]) {
-						drawLine(index, index + 1 + width, true);
-					}
+				if ((edge & EDGE_DOWN) != 0) {
+					drawLine(index, index + width, true);
+				}
+
+				if ((edge & EDGE_DIAGONAL) != 0) {
+					drawLine(index, index + 1 + width, true);
 				}
 			}
 		}
@@ -580,22 +956,24 @@ public class KinectPoints {
 		p.stroke(lineColor);
 		p.beginShape(PApplet.LINES);
 
-		for (int row = 0; row < height - 1; row++) {
-			for (int col = 0; col < width - 1; col++) {
-				int index = col + row * width;
+		// Make sure that the edges are up to date
+		updateEdges();
 
-				if (visibilityMask[index]) {
-					if (visibilityMask[index + 1]) {
-						drawLine(index, index + 1, false);
-					}
+		for (int index = visibilityMask.nextSetBit(0); index >= 0 && index < nPoints - width; index = visibilityMask
+				.nextSetBit(index + 1)) {
+			if (index % width < width - 1) {
+				int edge = edges[index];
 
-					if (visibilityMask[index + width]) {
-						drawLine(index, index + width, false);
-					}
+				if ((edge & EDGE_RIGHT) != 0) {
+					drawLine(index, index + 1, false);
+				}
 
-					if (visibilityMask[index + 1 + width]) {
-						drawLine(index, index + 1 + width, false);
-					}
+				if ((edge & EDGE_DOWN) != 0) {
+					drawLine(index, index + width, false);
+				}
+
+				if ((edge & EDGE_DIAGONAL) != 0) {
+					drawLine(index, index + 1 + width, false);
 				}
 			}
 		}
@@ -605,7 +983,7 @@ public class KinectPoints {
 	}
 
 	/**
-	 * Draws a triangle between three Kinect points if they are connected
+	 * Draws a triangle between three connected Kinect points
 	 * 
 	 * @param index1 the first point index
 	 * @param index2 the second point index
@@ -613,22 +991,64 @@ public class KinectPoints {
 	 * @param useColors use the points colors if true
 	 */
 	protected void drawTriangle(int index1, int index2, int index3, boolean useColors) {
-		PVector point1 = points[index1];
-		PVector point2 = points[index2];
-		PVector point3 = points[index3];
-
-		if (connected(point1, point2) && connected(point1, point3) && connected(point2, point3)) {
-			if (useColors) {
-				p.fill(colors[index1]);
-				p.vertex(point1.x, point1.y, point1.z);
-				p.fill(colors[index2]);
-				p.vertex(point2.x, point2.y, point2.z);
-				p.fill(colors[index3]);
-				p.vertex(point3.x, point3.y, point3.z);
-			} else {
-				p.vertex(point1.x, point1.y, point1.z);
-				p.vertex(point2.x, point2.y, point2.z);
-				p.vertex(point3.x, point3.y, point3.z);
+		if (useColors) {
+			p.fill(colors[index1]);
+			vertex(index1);
+			p.fill(colors[index2]);
+			vertex(index2);
+			p.fill(colors[index3]);
+			vertex(index3);
+		} else {
+			vertex(index1);
+			vertex(index2);
+			vertex(index3);
+		}
+	}
+
+	/**
+	 * Draws the triangles inside the grid cell that has the given point in its upper left corner
+	 * 
+	 * @param index the cell upper left point index
+	 * @param useColors use the points colors if true
+	 */
+	protected void drawCellTriangles(int index, boolean useColors) {
+		boolean upperLeft = visibilityMask.get(index);
+		boolean upperRight = visibilityMask.get(index + 1);
+		boolean lowerLeft = visibilityMask.get(index + width);
+		boolean lowerRight = visibilityMask.get(index + 1 + width);
+
+		// Get the cell edges
+		int edge = edges[index];
+		boolean top = (edge & EDGE_RIGHT) != 0;
+		boolean left = (edge & EDGE_DOWN) != 0;
+		boolean diagonal = (edge & EDGE_DIAGONAL) != 0;
+		boolean antiDiagonal = (edge & EDGE_ANTI_DIAGONAL) != 0;
+		boolean right = (edges[index + 1] & EDGE_DOWN) != 0;
+		boolean bottom = (edges[index + width] & EDGE_RIGHT) != 0;
+
+		// First triangle
+		if (upperLeft && lowerLeft) {
+			if (upperRight) {
+				if (top && left && antiDiagonal) {
+					drawTriangle(index, index + 1, index + width, useColors);
+				}
+			} else if (lowerRight) {
+				if (diagonal && left && bottom) {
+					drawTriangle(index, index + 1 + width, index + width, useColors);
+				}
+			}
+		}
+
+		// Second triangle
+		if (upperRight && lowerRight) {
+			if (lowerLeft) {
+				if (right && antiDiagonal && bottom) {
+					drawTriangle(index + 1, index + 1 + width, index + width, useColors);
+				}
+			} else if (upperLeft) {
+				if (top && right && diagonal) {
+					drawTriangle(index, index + 1, index + 1 + width, useColors);
+				}
 			}
 		}
 	}
@@ -641,27 +1061,23 @@ public class KinectPoints {
 		p.noStroke();
 		p.beginShape(PApplet.TRIANGLES);
 
-		for (int row = 0; row < height - 1; row++) {
-			for (int col = 0; col < width - 1; col++) {
-				int index = col + row * width;
+		// Make sure that the edges are up to date
+		updateEdges();
 
-				// First triangle
-				if (visibilityMask[index] && visibilityMask[index + width]) {
-					if (visibilityMask[index + 1]) {
-						drawTriangle(index, index + 1, index + width, true);
-					} else if (visibilityMask[index + 1 + width]) {
-						drawTriangle(index, index + 1 + width, index + width, true);
-					}
-				}
+		// Every triangle has at least one visible point in the upper row of its grid cell
+		int lastCell = -1;
 
-				// Second triangle
-				if (visibilityMask[index + 1] && visibilityMask[index + 1 + width]) {
-					if (visibilityMask[index + width]) {
-						drawTriangle(index + 1, index + 1 + width, index + width, true);
-					} else if (visibilityMask[index]) {
-						drawTriangle(index, index + 1, index + 1 + width, true);
-					}
-				}
+		for (int index = visibilityMask.nextSetBit(0); index >= 0 && index < nPoints - width; index = visibilityMask
+				.nextSetBit(index + 1)) {
+			int col = index % width;
+
+			if (col > 0 && index - 1 > lastCell) {
+				drawCellTriangles(index - 1, true);
+			}
+
+			if (col < width - 1) {
+				drawCellTriangles(index, true);
+				lastCell = index;
 			}
 		}
 
@@ -680,27 +1096,23 @@ public class KinectPoints {
 		p.fill(trianglesColor);
 		p.beginShape(PApplet.TRIANGLES);
 
-		for (int row = 0; row < height - 1; row++) {
-			for (int col = 0; col < width - 1; col++) {
-				int index = col + row * width;
+		// Make sure that the edges are up to date
+		updateEdges();
 
-				// First triangle
-				if (visibilityMask[index] && visibilityMask[index + width]) {
-					if (visibilityMask[index + 1]) {
-						drawTriangle(index, index + 1, index + width, false);
-					} else if (visibilityMask[index + 1 + width]) {
-						drawTriangle(index, index + 1 + width, index + width, false);
-					}
-				}
+		// Every triangle has at least one visible point in the upper row of its grid cell
+		int lastCell = -1;
 
-				// Second triangle
-				if (visibilityMask[index + 1] && visibilityMask[index + 1 + width]) {
-					if (visibilityMask[index + width]) {
-						drawTriangle(index + 1, index + 1 + width, index + width, false);
-					} else if (visibilityMask[index]) {
-						drawTriangle(index, index + 1, index + 1 + width, false);
-					}
-				}
+		for (int index = visibilityMask.nextSetBit(0); index >= 0 && index < nPoints - width; index = visibilityMask
+				.nextSetBit(index + 1)) {
+			int col = index % width;
+
+			if (col > 0 && index - 1 > lastCell) {
+				drawCellTriangles(index - 1, false);
+			}
+
+			if (col < width - 1) {
+				drawCellTriangles(index, false);
+				lastCell = index;
 			}
 		}
 
@@ -708,6 +1120,41 @@ public class KinectPoints {
 		p.popStyle();
 	}
 
+	/**
+	 * Returns the number of visible points
+	 * 
+	 * @return the number of visible points
+	 */
+	public int countVisiblePoints() {
+		return visibilityMask.cardinality();
+	}
+
+	/**
+	 * Returns a copy of the coordinates of the point with the given index
+	 * 
+	 * @param index the point index
+	 * @return a copy of the point coordinates
+	 */
+	public PVector getPoint(int index) {
+		return new PVector(points[3 * index], points[3 * index + 1], points[3 * index + 2]);
+	}
+
+	/**
+	 * Returns a copy of all the points coordinates as an array of PVector objects. This method allocates one object per
+	 * point and it's only provided for compatibility with code that expects the old PVector based arrays
+	 * 
+	 * @return an array with a copy of the points coordinates
+	 */
+	public PVector[] getPoints() {
+		PVector[] pointsCopy = new PVector[nPoints];
+
+		for (int index = 0; index < nPoints; index++) {
+			pointsCopy[index] = getPoint(index);
+		}
+
+		return pointsCopy;
+	}
+
 	/**
 	 * Sets the value of the maximum separation between two consecutive points to consider them connected
 	 * 
@@ -715,6 +1162,9 @@ public class KinectPoints {
 	 */
 	public void setMaxPointSeparation(float newMaxPointSeparation) {
 		maxPointSeparationSq = newMaxPointSeparation * newMaxPointSeparation;
+
+		// The edges depend on the maximum separation
+		edgesGeneration = -1;
 	}
 
 	/**
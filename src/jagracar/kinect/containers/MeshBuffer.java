@@ -0,0 +1,781 @@
+package jagracar.kinect.containers;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import jagracar.kinect.util.ParallelHelper;
+import processing.core.PApplet;
+import processing.core.PShape;
+
+/**
+ * Class used to store the mesh of a scan in plain arrays, without the need of an OpenGL context.
+ * 
+ * Each visible scan point is stored once as a vertex, and the triangles or lines reference the vertices with an index
+ * array. The arrays are filled by tight loops over the scan points and are reused the next time the buffer is filled,
+ * if they are large enough. The mesh can then be saved in a file in a single write, or drawn without duplicated
+ * vertices with the IndexedMesh class. The triangles and lines follow the same order as the scan grid cells and points.
+ * 
+ * The conversion to a Processing shape is not a bulk operation: the shapes don't support index arrays, so the vertices
+ * are added one by one and each triangle gets its own three vertices
+ * 
+ * @author Javier Graciá Carpio (jagracar)
+ */
+public class MeshBuffer {
+
+	/**
+	 * The triangle between the upper left, upper right and lower left points of a grid cell
+	 */
+	public static final int TRIANGLE_UPPER_LEFT = 1;
+
+	/**
+	 * The triangle between the upper left, lower right and lower left points of a grid cell
+	 */
+	public static final int TRIANGLE_LOWER_LEFT = 2;
+
+	/**
+	 * The triangle between the upper right, lower right and lower left points of a grid cell
+	 */
+	public static final int TRIANGLE_LOWER_RIGHT = 4;
+
+	/**
+	 * The triangle between the upper left, upper right and lower right points of a grid cell
+	 */
+	public static final int TRIANGLE_UPPER_RIGHT = 8;
+
+	/**
+	 * The edges that are drawn by the lines mesh
+	 */
+	public static final int LINE_EDGES = KinectPoints.EDGE_RIGHT | KinectPoints.EDGE_DOWN | KinectPoints.EDGE_DIAGONAL;
+
+	/**
+	 * The number of rows in each of the stripes that are filled in parallel
+	 */
+	public static final int STRIPE_ROWS = KinectPoints.MIN_ROWS_PER_TASK;
+
+	/**
+	 * The barycenter attribute of each triangle vertex
+	 */
+	protected static final float[][] BARYCENTERS = new float[][] { { 1, 0, 0 }, { 0, 1, 0 }, { 0, 0, 1 } };
+
+	/**
+	 * The mesh primitive type: PApplet.TRIANGLES, PApplet.POINTS or PApplet.LINES
+	 */
+	protected int kind;
+
+	/**
+	 * The number of vertices
+	 */
+	protected int nVertices;
+
+	/**
+	 * Array containing the vertex positions, stored consecutively as x, y, z triplets
+	 */
+	protected float[] positions;
+
+	/**
+	 * Array containing the vertex colors. It's null if all the vertices have the same color
+	 */
+	protected int[] colors;
+
+	/**
+	 * The color of all the vertices, if the colors array is null
+	 */
+	protected int color;
+
+	/**
+	 * Array containing the vertex normals, stored consecutively as x, y, z triplets. It's null if the mesh has no
+	 * normals
+	 */
+	protected float[] normals;
+
+	/**
+	 * The number of indices
+	 */
+	protected int nIndices;
+
+	/**
+	 * Array containing the vertex indices of each triangle or line. It's not used by the points meshes
+	 */
+	protected int[] indices;
+
+	/**
+	 * Array containing the vertex index of each scan point. It's -1 if the point is not visible
+	 */
+	protected int[] vertexIndices;
+
+	/**
+	 * Constructs an empty mesh buffer
+	 */
+	public MeshBuffer() {
+		this.kind = PApplet.TRIANGLES;
+		this.nVertices = 0;
+		this.positions = new float[0];
+		this.colors = null;
+		this.color = 0xffffffff;
+		this.normals = null;
+		this.nIndices = 0;
+		this.indices = new int[0];
+		this.vertexIndices = new int[0];
+	}
+
+	/**
+	 * Fills the buffer with the scan triangles, using the points colors
+	 * 
+	 * @param scan the scan
+	 * @param addNormals add the points normals to the mesh if true
+	 */
+	public void fillTriangles(Scan scan, boolean addNormals) {
+		fill(PApplet.TRIANGLES, scan, addNormals, true, 0);
+	}
+
+	/**
+	 * Fills the buffer with the scan triangles
+	 * 
+	 * @param scan the scan
+	 * @param addNormals add the points normals to the mesh if true
+	 * @param trianglesColor the color to use for all the triangles
+	 */
+	public void fillTriangles(Scan scan, boolean addNormals, int trianglesColor) {
+		fill(PApplet.TRIANGLES, scan, addNormals, false, trianglesColor);
+	}
+
+	/**
+	 * Fills the buffer with the scan points, using the points colors
+	 * 
+	 * @param scan the scan
+	 * @param addNormals add the points normals to the mesh if true
+	 */
+	public void fillPoints(Scan scan, boolean addNormals) {
+		fill(PApplet.POINTS, scan, addNormals, true, 0);
+	}
+
+	/**
+	 * Fills the buffer with the scan points
+	 * 
+	 * @param scan the scan
+	 * @param addNormals add the points normals to the mesh if true
+	 * @param pointColor the color to use for all the points
+	 */
+	public void fillPoints(Scan scan, boolean addNormals, int pointColor) {
+		fill(PApplet.POINTS, scan, addNormals, false, pointColor);
+	}
+
+	/**
+	 * Fills the buffer with the scan lines, using the points colors
+	 * 
+	 * @param scan the scan
+	 * @param addNormals add the points normals to the mesh if true
+	 */
+	public void fillLines(Scan scan, boolean addNormals) {
+		fill(PApplet.LINES, scan, addNormals, true, 0);
+	}
+
+	/**
+	 * Fills the buffer with the scan lines
+	 * 
+	 * @param scan the scan
+	 * @param addNormals add the points normals to the mesh if true
+	 * @param lineColor the color to use for all the lines
+	 */
+	public void fillLines(Scan scan, boolean addNormals, int lineColor) {
+		fill(PApplet.LINES, scan, addNormals, false, lineColor);
+	}
+
+	/**
+	 * Fills the buffer with the scan vertices and the indices of the given primitive type.
+	 * 
+	 * The scan is divided in stripes of rows. The vertices and indices of each stripe are counted first, and the stripe
+	 * offsets in the arrays are calculated from those counts. The stripes are then filled in parallel, producing the
+	 * same arrays as a sequential fill
+	 * 
+	 * @param newKind the mesh primitive type: PApplet.TRIANGLES, PApplet.POINTS or PApplet.LINES
+	 * @param scan the scan
+	 * @param addNormals add the points normals to the mesh if true
+	 * @param addColors add the points colors to the mesh if true
+	 * @param uniformColor the color to use for all the vertices if the points colors are not added
+	 */
+	protected void fill(int newKind, final Scan scan, boolean addNormals, final boolean addColors, int uniformColor) {
+		// Make sure that the normals and the edges are up to date
+		if (addNormals) {
+			scan.updateNormals();
+		}
+
+		if (newKind != PApplet.POINTS) {
+			scan.updateEdges();
+		}
+
+		kind = newKind;
+		color = uniformColor;
+		final boolean useNormals = addNormals && scan.normals != null;
+
+		// Count the vertices and indices in each stripe
+		final int nStripes = (scan.height + STRIPE_ROWS - 1) / STRIPE_ROWS;
+		final int[] vertexOffsets = new int[nStripes + 1];
+		final int[] indexOffsets = new int[nStripes + 1];
+
+		ParallelHelper.run(nStripes, 1, new ParallelHelper.RangeTask() {
+			public void run(int startStripe, int endStripe) {
+				for (int stripe = startStripe; stripe < endStripe; stripe++) {
+					int startRow = stripe * STRIPE_ROWS;
+					int endRow = Math.min(startRow + STRIPE_ROWS, scan.height);
+					vertexOffsets[stripe + 1] = countVertices(scan, startRow, endRow);
+					indexOffsets[stripe + 1] = countIndices(scan, startRow, endRow);
+				}
+			}
+		});
+
+		// Calculate the stripe offsets
+		for (int stripe = 0; stripe < nStripes; stripe++) {
+			vertexOffsets[stripe + 1] += vertexOffsets[stripe];
+			indexOffsets[stripe + 1] += indexOffsets[stripe];
+		}
+
+		nVertices = vertexOffsets[nStripes];
+		nIndices = indexOffsets[nStripes];
+		ensureCapacity(scan.nPoints, useNormals, addColors);
+
+		// Fill the vertices. They should be ready before the indices are filled, because the triangles and lines use
+		// the vertices of the next stripe first row
+		ParallelHelper.run(nStripes, 1, new ParallelHelper.RangeTask() {
+			public void run(int startStripe, int endStripe) {
+				for (int stripe = startStripe; stripe < endStripe; stripe++) {
+					int startRow = stripe * STRIPE_ROWS;
+					int endRow = Math.min(startRow + STRIPE_ROWS, scan.height);
+					fillVertices(scan, startRow, endRow, vertexOffsets[stripe], useNormals, addColors);
+				}
+			}
+		});
+
+		// Fill the indices
+		if (nIndices > 0) {
+			ParallelHelper.run(nStripes, 1, new ParallelHelper.RangeTask() {
+				public void run(int startStripe, int endStripe) {
+					for (int stripe = startStripe; stripe < endStripe; stripe++) {
+						int startRow = stripe * STRIPE_ROWS;
+						int endRow = Math.min(startRow + STRIPE_ROWS, scan.height);
+						fillIndices(scan, startRow, endRow, indexOffsets[stripe]);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Resizes the buffer arrays if they are too small for the current number of vertices and indices
+	 * 
+	 * @param nPoints the number of scan points
+	 * @param addNormals true if the vertices should have normals
+	 * @param addColors true if the vertices should have colors
+	 */
+	protected void ensureCapacity(int nPoints, boolean addNormals, boolean addColors) {
+		if (vertexIndices.length < nPoints) {
+			vertexIndices = new int[nPoints];
+		}
+
+		if (positions.length < 3 * nVertices) {
+			positions = new float[3 * nVertices];
+		}
+
+		if (!addColors) {
+			colors = null;
+		} else if (colors == null || colors.length < nVertices) {
+			colors = new int[nVertices];
+		}
+
+		if (!addNormals) {
+			normals = null;
+		} else if (normals == null || normals.length < 3 * nVertices) {
+			normals = new float[3 * nVertices];
+		}
+
+		if (indices.length < nIndices) {
+			indices = new int[nIndices];
+		}
+	}
+
+	/**
+	 * Counts the visible scan points in a range of rows
+	 * 
+	 * @param scan the scan
+	 * @param startRow the first row
+	 * @param endRow the row after the last row
+	 * @return the number of visible points
+	 */
+	protected static int countVertices(Scan scan, int startRow, int endRow) {
+		VisibilityMask visibilityMask = scan.visibilityMask;
+		int start = startRow * scan.width;
+		int end = endRow * scan.width;
+		int counter = 0;
+
+		for (int index = visibilityMask.nextSetBit(start); index >= 0 && index < end; index = visibilityMask
+				.nextSetBit(index + 1)) {
+			counter++;
+		}
+
+		return counter;
+	}
+
+	/**
+	 * Fills the vertex arrays with the visible scan points in a range of rows
+	 * 
+	 * @param scan the scan
+	 * @param startRow the first row
+	 * @param endRow the row after the last row
+	 * @param firstVertex the index of the first vertex in the range
+	 * @param addNormals add the points normals to the vertices if true
+	 * @param addColors add the points colors to the vertices if true
+	 */
+	protected void fillVertices(Scan scan, int startRow, int endRow, int firstVertex, boolean addNormals,
+			boolean addColors) {
+		float[] points = scan.points;
+		float[] scanNormals = scan.normals;
+		int[] scanColors = scan.colors;
+		VisibilityMask visibilityMask = scan.visibilityMask;
+		int vertex = firstVertex;
+
+		for (int index = startRow * scan.width, end = endRow * scan.width; index < end; index++) {
+			if (visibilityMask.get(index)) {
+				positions[3 * vertex] = points[3 * index];
+				positions[3 * vertex + 1] = points[3 * index + 1];
+				positions[3 * vertex + 2] = points[3 * index + 2];
+
+				if (addColors) {
+					colors[vertex] = scanColors[index];
+				}
+
+				if (addNormals) {
+					normals[3 * vertex] = scanNormals[3 * index];
+					normals[3 * vertex + 1] = scanNormals[3 * index + 1];
+					normals[3 * vertex + 2] = scanNormals[3 * index + 2];
+				}
+
+				vertexIndices[index] = vertex++;
+			} else {
+				vertexIndices[index] = -1;
+			}
+		}
+	}
+
+	/**
+	 * Counts the indices of the current primitive type in a range of rows
+	 * 
+	 * @param scan the scan
+	 * @param startRow the first row
+	 * @param endRow the row after the last row
+	 * @return the number of indices
+	 */
+	protected int countIndices(Scan scan, int startRow, int endRow) {
+		// The last row has no grid cells and no lines
+		endRow = Math.min(endRow, scan.height - 1);
+
+		if (kind == PApplet.TRIANGLES) {
+			return 3 * countTriangles(scan, startRow, endRow);
+		} else if (kind == PApplet.LINES) {
+			return 2 * countLines(scan, startRow, endRow);
+		} else {
+			return 0;
+		}
+	}
+
+	/**
+	 * Fills the indices array with the primitives of the current type in a range of rows
+	 * 
+	 * @param scan the scan
+	 * @param startRow the first row
+	 * @param endRow the row after the last row
+	 * @param firstIndex the position of the range first index in the indices array
+	 */
+	protected void fillIndices(Scan scan, int startRow, int endRow, int firstIndex) {
+		// The last row has no grid cells and no lines
+		endRow = Math.min(endRow, scan.height - 1);
+
+		if (kind == PApplet.TRIANGLES) {
+			fillTriangleIndices(scan, startRow, endRow, firstIndex);
+		} else if (kind == PApplet.LINES) {
+			fillLineIndices(scan, startRow, endRow, firstIndex);
+		}
+	}
+
+	/**
+	 * Returns the triangles inside the grid cell that has the given point in its upper left corner. The triangles
+	 * follow the scan visibility mask and edges, which should be up to date
+	 * 
+	 * @param scan the scan
+	 * @param index the cell upper left point index
+	 * @return the combination of the TRIANGLE_* flags of the cell triangles
+	 */
+	protected static int getCellTriangles(Scan scan, int index) {
+		// All the triangles need at least one of the cell upper left point edges
+		byte[] edges = scan.edges;
+		int edge = edges[index];
+
+		if (edge == 0) {
+			return 0;
+		}
+
+		int width = scan.width;
+		VisibilityMask visibilityMask = scan.visibilityMask;
+		boolean upperLeft = visibilityMask.get(index);
+		boolean upperRight = visibilityMask.get(index + 1);
+		boolean lowerLeft = visibilityMask.get(index + width);
+		boolean lowerRight = visibilityMask.get(index + 1 + width);
+
+		// Get the cell edges
+		boolean top = (edge & KinectPoints.EDGE_RIGHT) != 0;
+		boolean left = (edge & KinectPoints.EDGE_DOWN) != 0;
+		boolean diagonal = (edge & KinectPoints.EDGE_DIAGONAL) != 0;
+		boolean antiDiagonal = (edge & KinectPoints.EDGE_ANTI_DIAGONAL) != 0;
+		boolean right = (edges[index + 1] & KinectPoints.EDGE_DOWN) != 0;
+		boolean bottom = (edges[index + width] & KinectPoints.EDGE_RIGHT) != 0;
+		int triangles = 0;
+
+		// Select the first triangle
+		if (upperLeft && lowerLeft) {
+			if (upperRight) {
+				if (top && left && antiDiagonal) {
+					triangles |= TRIANGLE_UPPER_LEFT;
+				}
+			} else if (lowerRight) {
+				if (diagonal && left && bottom) {
+					triangles |= TRIANGLE_LOWER_LEFT;
+				}
+			}
+		}
+
+		// Select the second triangle
+		if (upperRight && lowerRight) {
+			if (lowerLeft) {
+				if (right && antiDiagonal && bottom) {
+					triangles |= TRIANGLE_LOWER_RIGHT;
+				}
+			} else if (upperLeft) {
+				if (top && right && diagonal) {
+					triangles |= TRIANGLE_UPPER_RIGHT;
+				}
+			}
+		}
+
+		return triangles;
+	}
+
+	/**
+	 * Counts the scan triangles in a range of grid cell rows
+	 * 
+	 * @param scan the scan
+	 * @param startRow the first row
+	 * @param endRow the row after the last row
+	 * @return the number of triangles
+	 */
+	protected static int countTriangles(Scan scan, int startRow, int endRow) {
+		int width = scan.width;
+		int counter = 0;
+
+		for (int row = startRow; row < endRow; row++) {
+			for (int index = row * width, end = index + width - 1; index < end; index++) {
+				counter += Integer.bitCount(getCellTriangles(scan, index));
+			}
+		}
+
+		return counter;
+	}
+
+	/**
+	 * Fills the indices array with the scan triangles in a range of grid cell rows, in grid cell order
+	 * 
+	 * @param scan the scan
+	 * @param startRow the first row
+	 * @param endRow the row after the last row
+	 * @param firstIndex the position of the range first index in the indices array
+	 */
+	protected void fillTriangleIndices(Scan scan, int startRow, int endRow, int firstIndex) {
+		int width = scan.width;
+		int counter = firstIndex;
+
+		for (int row = startRow; row < endRow; row++) {
+			for (int index = row * width, end = index + width - 1; index < end; index++) {
+				int triangles = getCellTriangles(scan, index);
+
+				if (triangles != 0) {
+					int upperLeft = vertexIndices[index];
+					int upperRight = vertexIndices[index + 1];
+					int lowerLeft = vertexIndices[index + width];
+					int lowerRight = vertexIndices[index + 1 + width];
+
+					if ((triangles & TRIANGLE_UPPER_LEFT) != 0) {
+						indices[counter++] = upperLeft;
+						indices[counter++] = upperRight;
+						indices[counter++] = lowerLeft;
+					} else if ((triangles & TRIANGLE_LOWER_LEFT) != 0) {
+						indices[counter++] = upperLeft;
+						indices[counter++] = lowerRight;
+						indices[counter++] = lowerLeft;
+					}
+
+					if ((triangles & TRIANGLE_LOWER_RIGHT) != 0) {
+						indices[counter++] = upperRight;
+						indices[counter++] = lowerRight;
+						indices[counter++] = lowerLeft;
+					} else if ((triangles & TRIANGLE_UPPER_RIGHT) != 0) {
+						indices[counter++] = upperLeft;
+						indices[counter++] = upperRight;
+						indices[counter++] = lowerRight;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts the scan lines in a range of rows. The lines start at the points outside the last row and column
+	 * 
+	 * @param scan the scan
+	 * @param startRow the first row
+	 * @param endRow the row after the last row
+	 * @return the number of lines
+	 */
+	protected static int countLines(Scan scan, int startRow, int endRow) {
+		byte[] edges = scan.edges;
+		int width = scan.width;
+		int counter = 0;
+
+		for (int row = startRow; row < endRow; row++) {
+			for (int index = row * width, end = index + width - 1; index < end; index++) {
+				counter += Integer.bitCount(edges[index] & LINE_EDGES);
+			}
+		}
+
+		return counter;
+	}
+
+	/**
+	 * Fills the indices array with the scan lines in a range of rows, in point order
+	 * 
+	 * @param scan the scan
+	 * @param startRow the first row
+	 * @param endRow the row after the last row
+	 * @param firstIndex the position of the range first index in the indices array
+	 */
+	protected void fillLineIndices(Scan scan, int startRow, int endRow, int firstIndex) {
+		byte[] edges = scan.edges;
+		int width = scan.width;
+		int counter = firstIndex;
+
+		for (int row = startRow; row < endRow; row++) {
+			for (int index = row * width, end = index + width - 1; index < end; index++) {
+				int edge = edges[index];
+
+				if ((edge & LINE_EDGES) != 0) {
+					int vertex = vertexIndices[index];
+
+					if ((edge & KinectPoints.EDGE_RIGHT) != 0) {
+						indices[counter++] = vertex;
+						indices[counter++] = vertexIndices[index + 1];
+					}
+
+					if ((edge & KinectPoints.EDGE_DOWN) != 0) {
+						indices[counter++] = vertex;
+						indices[counter++] = vertexIndices[index + width];
+					}
+
+					if ((edge & KinectPoints.EDGE_DIAGONAL) != 0) {
+						indices[counter++] = vertex;
+						indices[counter++] = vertexIndices[index + 1 + width];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of vertices
+	 * 
+	 * @return the number of vertices
+	 */
+	public int getNumVertices() {
+		return nVertices;
+	}
+
+	/**
+	 * Returns the number of triangles, points or lines in the mesh
+	 * 
+	 * @return the number of mesh primitives
+	 */
+	public int getNumPrimitives() {
+		if (kind == PApplet.TRIANGLES) {
+			return nIndices / 3;
+		} else if (kind == PApplet.LINES) {
+			return nIndices / 2;
+		} else {
+			return nVertices;
+		}
+	}
+
+	/**
+	 * Creates a Processing shape with the mesh
+	 * 
+	 * @param p the parent Processing applet
+	 * @return the Processing shape
+	 */
+	public PShape createShape(PApplet p) {
+		return createShape(p, 1);
+	}
+
+	/**
+	 * Creates a Processing shape with the mesh. The vertices are added one by one, expanding the triangles and lines
+	 * indices, so the shape contains a separate copy of each vertex for every primitive that uses it. The triangles
+	 * are added with a barycenter attribute, and the points and lines normals are added as a normal attribute
+	 * 
+	 * @param p the parent Processing applet
+	 * @param strokeWeight the points size or the lines width. It's not used by the triangles meshes
+	 * @return the Processing shape
+	 */
+	public PShape createShape(PApplet p, float strokeWeight) {
+		PShape shape = p.createShape();
+		shape.beginShape(kind);
+
+		if (kind == PApplet.TRIANGLES) {
+			shape.noStroke();
+
+			if (colors == null) {
+				shape.fill(color);
+			}
+
+			for (int i = 0; i < nIndices; i++) {
+				int vertex = indices[i];
+
+				if (colors != null) {
+					shape.fill(colors[vertex]);
+				}
+
+				if (normals != null) {
+					shape.normal(normals[3 * vertex], normals[3 * vertex + 1], normals[3 * vertex + 2]);
+				}
+
+				shape.vertex(positions[3 * vertex], positions[3 * vertex + 1], positions[3 * vertex + 2]);
+				float[] barycenter = BARYCENTERS[i % 3];
+				shape.attrib("barycenter", barycenter[0], barycenter[1], barycenter[2]);
+			}
+		} else {
+			if (kind == PApplet.LINES) {
+				shape.strokeCap(PApplet.SQUARE);
+			}
+
+			shape.strokeWeight(strokeWeight);
+
+			if (colors == null) {
+				shape.stroke(color);
+			}
+
+			int nShapeVertices = kind == PApplet.LINES ? nIndices : nVertices;
+
+			for (int i = 0; i < nShapeVertices; i++) {
+				int vertex = kind == PApplet.LINES ? indices[i] : i;
+
+				if (colors != null) {
+					shape.stroke(colors[vertex]);
+				}
+
+				if (normals != null) {
+					shape.attribNormal("normal", normals[3 * vertex], normals[3 * vertex + 1], normals[3 * vertex + 2]);
+				}
+
+				shape.vertex(positions[3 * vertex], positions[3 * vertex + 1], positions[3 * vertex + 2]);
+			}
+		}
+
+		shape.endShape();
+
+		return shape;
+	}
+
+	/**
+	 * Saves the mesh in a binary PLY file. The triangles are saved as faces and the lines as edges
+	 * 
+	 * @param file the PLY file
+	 */
+	public void savePly(File file) {
+		// Create the file parent directories if necessary
+		File parent = file.getAbsoluteFile().getParentFile();
+
+		if (parent != null) {
+			parent.mkdirs();
+		}
+
+		try (FileOutputStream output = new FileOutputStream(file)) {
+			// Write the file header
+			StringBuilder header = new StringBuilder();
+			header.append("ply\nformat binary_little_endian 1.0\n");
+			header.append("element vertex ").append(nVertices).append('\n');
+			header.append("property float x\nproperty float y\nproperty float z\n");
+
+			if (normals != null) {
+				header.append("property float nx\nproperty float ny\nproperty float nz\n");
+			}
+
+			header.append("property uchar red\nproperty uchar green\nproperty uchar blue\nproperty uchar alpha\n");
+
+			if (kind == PApplet.TRIANGLES) {
+				header.append("element face ").append(nIndices / 3).append('\n');
+				header.append("property list uchar int vertex_indices\n");
+			} else if (kind == PApplet.LINES) {
+				header.append("element edge ").append(nIndices / 2).append('\n');
+				header.append("property int vertex1\nproperty int vertex2\n");
+			}
+
+			header.append("end_header\n");
+			byte[] headerBytes = header.toString().getBytes(StandardCharsets.US_ASCII);
+
+			// Fill a buffer with the file contents
+			int vertexSize = normals != null ? 28 : 16;
+			int elementsSize = kind == PApplet.TRIANGLES ? (nIndices / 3) * 13 : 4 * nIndices;
+			ByteBuffer buffer = ByteBuffer.allocateDirect(headerBytes.length + nVertices * vertexSize + elementsSize);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.put(headerBytes);
+
+			for (int vertex = 0; vertex < nVertices; vertex++) {
+				buffer.putFloat(positions[3 * vertex]);
+				buffer.putFloat(positions[3 * vertex + 1]);
+				buffer.putFloat(positions[3 * vertex + 2]);
+
+				if (normals != null) {
+					buffer.putFloat(normals[3 * vertex]);
+					buffer.putFloat(normals[3 * vertex + 1]);
+					buffer.putFloat(normals[3 * vertex + 2]);
+				}
+
+				int vertexColor = colors != null ? colors[vertex] : color;
+				buffer.put((byte) (vertexColor >> 16));
+				buffer.put((byte) (vertexColor >> 8));
+				buffer.put((byte) vertexColor);
+				buffer.put((byte) (vertexColor >>> 24));
+			}
+
+			if (kind == PApplet.TRIANGLES) {
+				for (int i = 0; i < nIndices; i += 3) {
+					buffer.put((byte) 3);
+					buffer.putInt(indices[i]);
+					buffer.putInt(indices[i + 1]);
+					buffer.putInt(indices[i + 2]);
+				}
+			} else if (kind == PApplet.LINES) {
+				buffer.asIntBuffer().put(indices, 0, nIndices);
+				buffer.position(buffer.position() + 4 * nIndices);
+			}
+
+			// Write the buffer in the file
+			buffer.flip();
+			FileChannel channel = output.getChannel();
+
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e) {
+			System.out.println("MeshBuffer class: there was a problem saving the mesh in " + file);
+		}
+	}
+}
@@ -1,10 +1,16 @@
 package jagracar.kinect.containers;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 
+import jagracar.kinect.util.ParallelHelper;
 import jagracar.kinect.util.ScanBox;
+import jagracar.kinect.util.ShaderHelper;
 import processing.core.PApplet;
 import processing.core.PImage;
+import processing.core.PMatrix3D;
 import processing.core.PShape;
 import processing.core.PVector;
 import processing.opengl.PShader;
@@ -22,9 +28,20 @@ public class Scan extends KinectPoints {
 	protected PVector center;
 
 	/**
-	 * Array containing the scan point normals
+	 * Array containing the scan point normals, stored consecutively as x, y, z triplets
 	 */
-	protected PVector[] normals;
+	protected float[] normals;
+
+	/**
+	 * The points data generation used to calculate the normals
+	 */
+	protected int normalsGeneration = -1;
+
+	/**
+	 * The model transformation that is applied to the scan points when they are drawn or saved. The points, normals
+	 * and meshes are not modified until the transformation is baked. It's null if there is no transformation
+	 */
+	protected PMatrix3D modelMatrix;
 
 	/**
 	 * The scan mesh with the points coordinates, normals and colors
@@ -42,9 +59,155 @@ public class Scan extends KinectPoints {
 	protected PShape linesMesh;
 
 	/**
-	 * The shader that will be used to paint the scan mesh by default
+	 * The buffer used to calculate the scan mesh. It's reused every time the mesh is calculated
+	 */
+	protected MeshBuffer meshBuffer;
+
+	/**
+	 * The buffer used to calculate the scan points mesh. It's reused every time the mesh is calculated
+	 */
+	protected MeshBuffer pointsMeshBuffer;
+
+	/**
+	 * The buffer used to calculate the scan lines mesh. It's reused every time the mesh is calculated
+	 */
+	protected MeshBuffer linesMeshBuffer;
+
+	/**
+	 * True if the scan mesh properties have been defined and the mesh can be calculated when it's needed
+	 */
+	protected boolean meshDefined;
+
+	/**
+	 * Add the points normals to the scan mesh if true
+	 */
+	protected boolean meshNormals;
+
+	/**
+	 * Add the points colors to the scan mesh if true. Otherwise the front color will be used
+	 */
+	protected boolean meshUseColors;
+
+	/**
+	 * The color to use for the scan mesh front side
+	 */
+	protected int meshFrontColor;
+
+	/**
+	 * True if the points mesh properties have been defined and the mesh can be calculated when it's needed
+	 */
+	protected boolean pointsMeshDefined;
+
+	/**
+	 * Add the points normals to the points mesh if true
+	 */
+	protected boolean pointsMeshNormals;
+
+	/**
+	 * Add the points colors to the points mesh if true. Otherwise the points mesh color will be used
+	 */
+	protected boolean pointsMeshUseColors;
+
+	/**
+	 * The size to use for the points mesh points
+	 */
+	protected float pointsMeshSize;
+
+	/**
+	 * The color to use for the points mesh points
+	 */
+	protected int pointsMeshColor;
+
+	/**
+	 * True if the lines mesh properties have been defined and the mesh can be calculated when it's needed
+	 */
+	protected boolean linesMeshDefined;
+
+	/**
+	 * Add the points normals to the lines mesh if true
+	 */
+	protected boolean linesMeshNormals;
+
+	/**
+	 * Add the points colors to the lines mesh if true. Otherwise the lines mesh color will be used
+	 */
+	protected boolean linesMeshUseColors;
+
+	/**
+	 * The width to use for the lines mesh lines
+	 */
+	protected float linesMeshWidth;
+
+	/**
+	 * The color to use for the lines mesh lines
+	 */
+	protected int linesMeshColor;
+
+	/**
+	 * The scan indexed mesh, where each visible point is stored only once
+	 */
+	protected IndexedMesh indexedMesh;
+
+	/**
+	 * The points data generation used to calculate the indexed mesh
+	 */
+	protected int indexedMeshGeneration = -1;
+
+	/**
+	 * True if the indexed mesh properties have been defined and the mesh can be calculated when it's needed
+	 */
+	protected boolean indexedMeshDefined;
+
+	/**
+	 * Add the points normals to the indexed mesh if true
+	 */
+	protected boolean indexedMeshNormals;
+
+	/**
+	 * Add the points colors to the indexed mesh if true. Otherwise the indexed mesh front color will be used
+	 */
+	protected boolean indexedMeshUseColors;
+
+	/**
+	 * The color to use for the indexed mesh front side
+	 */
+	protected int indexedMeshFrontColor;
+
+	/**
+	 * The default mesh shader fragment file
+	 */
+	public static final String MESH_FRAG_SHADER = "src/jagracar/kinect/shaders/meshFrag.glsl";
+
+	/**
+	 * The default mesh shader vertex file
+	 */
+	public static final String MESH_VERT_SHADER = "src/jagracar/kinect/shaders/meshVert.glsl";
+
+	/**
+	 * The value of the illuminateFrontFace uniform in the default mesh shader. It's 1 if the mesh front side has a
+	 * single color
+	 */
+	protected int illuminateFrontFace;
+
+	/**
+	 * Scratch array reused by the separable smoothing to mark the points whose row window is fully visible
+	 */
+	protected boolean[] smoothingRowVisible;
+
+	/**
+	 * Scratch array reused by the separable smoothing to store the points coordinates smoothed along the rows
+	 */
+	protected float[] smoothingRowPoints;
+
+	/**
+	 * Scratch array reused by the separable smoothing to store the bounding boxes of the row windows
+	 */
+	protected float[] smoothingRowBoxes;
+
+	/**
+	 * Scratch array reused by the separable smoothing to store the smoothed points coordinates
 	 */
-	protected PShader meshShader;
+	protected float[] smoothingOutput;
 
 	/**
 	 * Constructs an empty Scan object with the specified dimensions
@@ -57,11 +220,19 @@ public class Scan extends KinectPoints {
 		super(p, width, height);
 		this.center = new PVector();
 		this.normals = null;
+		this.modelMatrix = null;
 		this.mesh = null;
 		this.pointsMesh = null;
 		this.linesMesh = null;
-		this.meshShader = this.p.loadShader("src/jagracar/kinect/shaders/meshFrag.glsl",
-				"src/jagracar/kinect/shaders/meshVert.glsl");
+		this.meshBuffer = null;
+		this.pointsMeshBuffer = null;
+		this.linesMeshBuffer = null;
+		this.meshDefined = false;
+		this.pointsMeshDefined = false;
+		this.linesMeshDefined = false;
+		this.indexedMesh = null;
+		this.indexedMeshDefined = false;
+		this.illuminateFrontFace = 0;
 	}
 
 	/**
@@ -84,11 +255,16 @@ public class Scan extends KinectPoints {
 		this(kp.p, kp.width, kp.height);
 
 		// Fill the main scan arrays
-		for (int index = 0; index < this.nPoints; index++) {
-			PVector point = kp.points[index];
-			this.points[index].set(point);
-			this.colors[index] = kp.colors[index];
-			this.visibilityMask[index] = kp.visibilityMask[index] && box.isInside(point);
+		System.arraycopy(kp.points, 0, this.points, 0, this.points.length);
+		System.arraycopy(kp.colors, 0, this.colors, 0, this.nPoints);
+
+		this.visibilityMask.set(kp.visibilityMask);
+
+		for (int index = this.visibilityMask.nextSetBit(0); index >= 0; index = this.visibilityMask
+				.nextSetBit(index + 1)) {
+			if (!box.isInside(this.points[3 * index], this.points[3 * index + 1], this.points[3 * index + 2])) {
+				this.visibilityMask.clear(index);
+			}
 		}
 
 		// Set the scan center to the scan box center
@@ -96,76 +272,72 @@ public class Scan extends KinectPoints {
 	}
 
 	/**
-	 * Calculates the scan points normals
+	 * Calculates the scan points normals. The rows are processed in parallel
 	 */
 	public void calculateNormals() {
 		// Create the normals array if necessary
-		if (normals == null || normals.length != nPoints) {
-			normals = new PVector[nPoints];
-
-			for (int index = 0; index < nPoints; index++) {
-				normals[index] = new PVector();
-			}
+		if (normals == null || normals.length != 3 * nPoints) {
+			normals = new float[3 * nPoints];
 		}
 
 		// Calculate the normals
-		PVector v1 = new PVector();
-		PVector v2 = new PVector();
-		PVector perp = new PVector();
+		ParallelHelper.run(height, MIN_ROWS_PER_TASK, new ParallelHelper.RangeTask() {
+			public void run(int start, int end) {
+				calculateNormals(start, end);
+			}
+		});
 
-		for (int row = 0; row < height; row++) {
+		// The normals are valid until the points change
+		normalsGeneration = generation;
+	}
+
+	/**
+	 * Calculates the scan points normals in a range of rows
+	 * 
+	 * @param startRow the first row
+	 * @param endRow the last row plus one
+	 */
+	protected void calculateNormals(int startRow, int endRow) {
+		for (int row = startRow; row < endRow; row++) {
 			for (int col = 0; col < width; col++) {
 				int index = col + row * width;
-				PVector normal = normals[index];
-				normal.set(0, 0, 0);
+				normals[3 * index] = 0;
+				normals[3 * index + 1] = 0;
+				normals[3 * index + 2] = 0;
 
-				if (visibilityMask[index]) {
+				if (visibilityMask.get(index)) {
 					// Calculate the average normal value at the given point
-					PVector point = points[index];
-					int counter = 0;
-
-					if (col + 1 < width && visibilityMask[index + 1]) {
-						PVector.sub(points[index + 1], point, v1);
+					boolean right = col + 1 < width && visibilityMask.get(index + 1);
+					boolean left = col - 1 >= 0 && visibilityMask.get(index - 1);
+					boolean down = row + 1 < height && visibilityMask.get(index + width);
+					boolean up = row - 1 >= 0 && visibilityMask.get(index - width);
 
-						if (row + 1 < height && visibilityMask[index + width]) {
-							PVector.sub(points[index + width], point, v2);
-							PVector.cross(v1, v2, perp);
-							perp.normalize();
-							normal.add(perp);
-							counter++;
-						}
-
-						if (row - 1 >= 0 && visibilityMask[index - width]) {
-							PVector.sub(points[index - width], point, v2);
-							PVector.cross(v2, v1, perp);
-							perp.normalize();
-							normal.add(perp);
-							counter++;
-						}
+					if (right && down) {
+						addPerpendicular(index, index + 1, index + width);
 					}
 
-					if (col - 1 >= 0 && visibilityMask[index - 1]) {
-						PVector.sub(points[index - 1], point, v1);
+					if (right && up) {
+						addPerpendicular(index, index - width, index + 1);
+					}
 
-						if (row + 1 < height && visibilityMask[index + width]) {
-							PVector.sub(points[index + width], point, v2);
-							PVector.cross(v2, v1, perp);
-							perp.normalize();
-							normal.add(perp);
-							counter++;
-						}
+					if (left && down) {
+						addPerpendicular(index, index + width, index - 1);
+					}
 
-						if (row - 1 >= 0 && visibilityMask[index - width]) {
-							PVector.sub(points[index - width], point, v2);
-							PVector.cross(v1, v2, perp);
-							perp.normalize();
-							normal.add(perp);
-							counter++;
-						}
+					if (left && up) {
+						addPerpendicular(index, index - 1, index - width);
 					}
 
-					if (counter > 0) {
-						normal.normalize();
+					// Normalize the average normal
+					float nx = normals[3 * index];
+					float ny = normals[3 * index + 1];
+					float nz = normals[3 * index + 2];
+					float norm = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+
+					if (norm != 0) {
+						normals[3 * index] = nx / norm;
+						normals[3 * index + 1] = ny / norm;
+						normals[3 * index + 2] = nz / norm;
 					}
 				}
 			}
@@ -173,163 +345,135 @@ public class Scan extends KinectPoints {
 	}
 
 	/**
-	 * Updates the scan normals
+	 * Adds to the normal of a given point the unit vector perpendicular to the plane defined by the point and two of
+	 * its neighbors
+	 * 
+	 * @param index the point index
+	 * @param index1 the first neighbor index
+	 * @param index2 the second neighbor index
+	 */
+	protected void addPerpendicular(int index, int index1, int index2) {
+		float x = points[3 * index];
+		float y = points[3 * index + 1];
+		float z = points[3 * index + 2];
+		float x1 = points[3 * index1] - x;
+		float y1 = points[3 * index1 + 1] - y;
+		float z1 = points[3 * index1 + 2] - z;
+		float x2 = points[3 * index2] - x;
+		float y2 = points[3 * index2 + 1] - y;
+		float z2 = points[3 * index2 + 2] - z;
+		float perpX = y1 * z2 - z1 * y2;
+		float perpY = z1 * x2 - x1 * z2;
+		float perpZ = x1 * y2 - y1 * x2;
+		float norm = (float) Math.sqrt(perpX * perpX + perpY * perpY + perpZ * perpZ);
+
+		if (norm != 0) {
+			normals[3 * index] += perpX / norm;
+			normals[3 * index + 1] += perpY / norm;
+			normals[3 * index + 2] += perpZ / norm;
+		}
+	}
+
+	/**
+	 * Updates the scan normals if they were calculated before and the points changed since then
 	 */
 	public void updateNormals() {
-		if (normals != null) {
+		if (normals != null && normalsGeneration != generation) {
 			calculateNormals();
 		}
 	}
 
+	/**
+	 * Increases the points data generation, invalidating the limits, the normals and the meshes. The normals are
+	 * recalculated the next time they are needed
+	 */
+	protected void invalidate() {
+		super.invalidate();
+		mesh = null;
+		pointsMesh = null;
+		linesMesh = null;
+	}
+
 	/**
 	 * Calculates the scan mesh
 	 * 
 	 * @param addNormals add the points normals to the scan mesh if true
 	 */
 	public void calculateMesh(boolean addNormals) {
-		// Create the scan mesh
-		mesh = p.createShape();
-		mesh.beginShape(PApplet.TRIANGLES);
-		mesh.noStroke();
-
-		for (int row = 0; row < height - 1; row++) {
-			for (int col = 0; col < width - 1; col++) {
-				int index = col + row * width;
+		defineMesh(addNormals);
+		buildMesh();
+	}
 
-				// Add the first triangle to the mesh
-				if (visibilityMask[index] && visibilityMask[index + width]) {
-					if (visibilityMask[index + 1]) {
-						addTriangle(mesh, index, index + 1, index + width, true, addNormals);
-					} else if (visibilityMask[index + 1 + width]) {
-						addTriangle(mesh, index, index + 1 + width, index + width, true, addNormals);
-					}
-				}
+	/**
+	 * Calculates the scan mesh
+	 * 
+	 * @param addNormals add the points normals to the scan mesh if true
+	 * @param frontColor the color to use for the scan mesh front side
+	 */
+	public void calculateMesh(boolean addNormals, int frontColor) {
+		defineMesh(addNormals, frontColor);
+		buildMesh();
+	}
 
-				// Add the second triangle to the mesh
-				if (visibilityMask[index + 1] && visibilityMask[index + 1 + width]) {
-					if (visibilityMask[index + width]) {
-						addTriangle(mesh, index + 1, index + 1 + width, index + width, true, addNormals);
-					} else if (visibilityMask[index]) {
-						addTriangle(mesh, index, index + 1, index + 1 + width, true, addNormals);
-					}
-				}
-			}
+	/**
+	 * Defines the scan mesh properties without calculating it. The mesh will be calculated the first time it's drawn,
+	 * and again after the points change. An existing mesh is kept if its properties don't change
+	 * 
+	 * @param addNormals add the points normals to the scan mesh if true
+	 */
+	public void defineMesh(boolean addNormals) {
+		// Keep the current mesh if its properties don't change
+		if (meshDefined && meshNormals == addNormals && meshUseColors) {
+			return;
 		}
 
-		mesh.endShape();
-
-		// Update the default mesh shader
-		meshShader.set("illuminateFrontFace", 0);
+		meshDefined = true;
+		meshNormals = addNormals;
+		meshUseColors = true;
+		mesh = null;
 	}
 
 	/**
-	 * Calculates the scan mesh
+	 * Defines the scan mesh properties without calculating it. The mesh will be calculated the first time it's drawn,
+	 * and again after the points change. An existing mesh is kept if its properties don't change
 	 * 
 	 * @param addNormals add the points normals to the scan mesh if true
 	 * @param frontColor the color to use for the scan mesh front side
 	 */
-	public void calculateMesh(boolean addNormals, int frontColor) {
-		// Create the scan mesh
-		mesh = p.createShape();
-		mesh.beginShape(PApplet.TRIANGLES);
-		mesh.noStroke();
-		mesh.fill(frontColor);
-
-		for (int row = 0; row < height - 1; row++) {
-			for (int col = 0; col < width - 1; col++) {
-				int index = col + row * width;
+	public void defineMesh(boolean addNormals, int frontColor) {
+		// Keep the current mesh if its properties don't change
+		if (meshDefined && meshNormals == addNormals && !meshUseColors && meshFrontColor == frontColor) {
+			return;
+		}
 
-				// Add the first triangle to the mesh
-				if (visibilityMask[index] && visibilityMask[index + width]) {
-					if (visibilityMask[index + 1]) {
-						addTriangle(mesh, index, index + 1, index + width, false, addNormals);
-					} else if (visibilityMask[index + 1 + width]) {
-						addTriangle(mesh, index, index + 1 + width, index + width, false, addNormals);
-					}
-				}
+		meshDefined = true;
+		meshNormals = addNormals;
+		meshUseColors = false;
+		meshFrontColor = frontColor;
+		mesh = null;
+	}
 
-				// Add the second triangle to the mesh
-				if (visibilityMask[index + 1] && visibilityMask[index + 1 + width]) {
-					if (visibilityMask[index + width]) {
-						addTriangle(mesh, index + 1, index + 1 + width, index + width, false, addNormals);
-					} else if (visibilityMask[index]) {
-						addTriangle(mesh, index, index + 1, index + 1 + width, false, addNormals);
-					}
-				}
-			}
+	/**
+	 * Builds the scan mesh using the defined mesh properties
+	 */
+	protected void buildMesh() {
+		// Fill the mesh buffer with the scan triangles and convert it to a shape
+		if (meshBuffer == null) {
+			meshBuffer = new MeshBuffer();
 		}
 
-		mesh.endShape();
-
-		// Update the default mesh shader
-		meshShader.set("illuminateFrontFace", 1);
-	}
-
-	/**
-	 * Adds a triangle to the given shape if the three Kinect points are connected
-	 * 
-	 * @param shape the shape where the triangle should be added
-	 * @param index1 the first point index
-	 * @param index2 the second point index
-	 * @param index3 the third point index
-	 * @param addColors add the points colors to the shape if true
-	 * @param addNormals add the points normals to the shape if true
-	 */
-	protected void addTriangle(PShape shape, int index1, int index2, int index3, boolean addColors,
-			boolean addNormals) {
-		PVector point1 = points[index1];
-		PVector point2 = points[index2];
-		PVector point3 = points[index3];
-
-		if (connected(point1, point2) && connected(point1, point3) && connected(point2, point3)) {
-			if (addNormals && normals != null) {
-				PVector normal1 = normals[index1];
-				PVector normal2 = normals[index2];
-				PVector normal3 = normals[index3];
-
-				if (addColors) {
-					shape.fill(colors[index1]);
-					shape.normal(normal1.x, normal1.y, normal1.z);
-					shape.vertex(point1.x, point1.y, point1.z);
-					shape.attrib("barycenter", 1.0f, 0.0f, 0.0f);
-					shape.fill(colors[index2]);
-					shape.normal(normal2.x, normal2.y, normal2.z);
-					shape.vertex(point2.x, point2.y, point2.z);
-					shape.attrib("barycenter", 0.0f, 1.0f, 0.0f);
-					shape.fill(colors[index3]);
-					shape.normal(normal3.x, normal3.y, normal3.z);
-					shape.vertex(point3.x, point3.y, point3.z);
-					shape.attrib("barycenter", 0.0f, 0.0f, 1.0f);
-				} else {
-					shape.normal(normal1.x, normal1.y, normal1.z);
-					shape.vertex(point1.x, point1.y, point1.z);
-					shape.attrib("barycenter", 1.0f, 0.0f, 0.0f);
-					shape.normal(normal2.x, normal2.y, normal2.z);
-					shape.vertex(point2.x, point2.y, point2.z);
-					shape.attrib("barycenter", 0.0f, 1.0f, 0.0f);
-					shape.normal(normal3.x, normal3.y, normal3.z);
-					shape.vertex(point3.x, point3.y, point3.z);
-					shape.attrib("barycenter", 0.0f, 0.0f, 1.0f);
-				}
-			} else if (addColors) {
-				shape.fill(colors[index1]);
-				shape.vertex(point1.x, point1.y, point1.z);
-				shape.attrib("barycenter", 1.0f, 0.0f, 0.0f);
-				shape.fill(colors[index2]);
-				shape.vertex(point2.x, point2.y, point2.z);
-				shape.attrib("barycenter", 0.0f, 1.0f, 0.0f);
-				shape.fill(colors[index3]);
-				shape.vertex(point3.x, point3.y, point3.z);
-				shape.attrib("barycenter", 0.0f, 0.0f, 1.0f);
-			} else {
-				shape.vertex(point1.x, point1.y, point1.z);
-				shape.attrib("barycenter", 1.0f, 0.0f, 0.0f);
-				shape.vertex(point2.x, point2.y, point2.z);
-				shape.attrib("barycenter", 0.0f, 1.0f, 0.0f);
-				shape.vertex(point3.x, point3.y, point3.z);
-				shape.attrib("barycenter", 0.0f, 0.0f, 1.0f);
-			}
+		MeshBuffer buffer = meshBuffer;
+
+		if (meshUseColors) {
+			buffer.fillTriangles(this, meshNormals);
+		} else {
+			buffer.fillTriangles(this, meshNormals, meshFrontColor);
 		}
+
+		mesh = buffer.createShape(p);
+
+		// The default mesh shader should use the points colors or the front color
+		illuminateFrontFace = meshUseColors ? 0 : 1;
 	}
 
 	/**
@@ -339,17 +483,8 @@ public class Scan extends KinectPoints {
 	 * @param pointSize the size to use for the mesh points
 	 */
 	public void calculatePointsMesh(boolean addNormals, float pointSize) {
-		pointsMesh = p.createShape();
-		pointsMesh.beginShape(PApplet.POINTS);
-		pointsMesh.strokeWeight(pointSize);
-
-		for (int index = 0; index < nPoints; index++) {
-			if (visibilityMask[index]) {
-				addPoint(pointsMesh, index, true, addNormals);
-			}
-		}
-
-		pointsMesh.endShape();
+		definePointsMesh(addNormals, pointSize);
+		buildPointsMesh();
 	}
 
 	/**
@@ -360,48 +495,72 @@ public class Scan extends KinectPoints {
 	 * @param pointColor the color to use for the mesh points
 	 */
 	public void calculatePointsMesh(boolean addNormals, float pointSize, int pointColor) {
-		pointsMesh = p.createShape();
-		pointsMesh.beginShape(PApplet.POINTS);
-		pointsMesh.strokeWeight(pointSize);
-		pointsMesh.stroke(pointColor);
+		definePointsMesh(addNormals, pointSize, pointColor);
+		buildPointsMesh();
+	}
 
-		for (int index = 0; index < nPoints; index++) {
-			if (visibilityMask[index]) {
-				addPoint(pointsMesh, index, false, addNormals);
-			}
+	/**
+	 * Defines the points mesh properties without calculating it. The mesh will be calculated the first time it's
+	 * drawn, and again after the points change. An existing mesh is kept if its properties don't change
+	 * 
+	 * @param addNormals add the points normals to the points mesh if true
+	 * @param pointSize the size to use for the mesh points
+	 */
+	public void definePointsMesh(boolean addNormals, float pointSize) {
+		// Keep the current mesh if its properties don't change
+		if (pointsMeshDefined && pointsMeshNormals == addNormals && pointsMeshUseColors
+				&& pointsMeshSize == pointSize) {
+			return;
 		}
 
-		pointsMesh.endShape();
+		pointsMeshDefined = true;
+		pointsMeshNormals = addNormals;
+		pointsMeshUseColors = true;
+		pointsMeshSize = pointSize;
+		pointsMesh = null;
 	}
 
 	/**
-	 * Adds a point to the given shape
+	 * Defines the points mesh properties without calculating it. The mesh will be calculated the first time it's
+	 * drawn, and again after the points change. An existing mesh is kept if its properties don't change
 	 * 
-	 * @param shape the shape where the point should be added
-	 * @param index the point index
-	 * @param addColors add the points colors to the shape if true
-	 * @param addNormals add the points normals to the shape if true
-	 */
-	protected void addPoint(PShape shape, int index, boolean addColors, boolean addNormals) {
-		PVector point = points[index];
-
-		if (addNormals && normals != null) {
-			PVector normal = normals[index];
-
-			if (addColors) {
-				shape.stroke(colors[index]);
-				shape.attribNormal("normal", normal.x, normal.y, normal.z);
-				shape.vertex(point.x, point.y, point.z);
-			} else {
-				shape.attribNormal("normal", normal.x, normal.y, normal.z);
-				shape.vertex(point.x, point.y, point.z);
-			}
-		} else if (addColors) {
-			shape.stroke(colors[index]);
-			shape.vertex(point.x, point.y, point.z);
+	 * @param addNormals add the points normals to the points mesh if true
+	 * @param pointSize the size to use for the mesh points
+	 * @param pointColor the color to use for the mesh points
+	 */
+	public void definePointsMesh(boolean addNormals, float pointSize, int pointColor) {
+		// Keep the current mesh if its properties don't change
+		if (pointsMeshDefined && pointsMeshNormals == addNormals && !pointsMeshUseColors && pointsMeshSize == pointSize
+				&& pointsMeshColor == pointColor) {
+			return;
+		}
+
+		pointsMeshDefined = true;
+		pointsMeshNormals = addNormals;
+		pointsMeshUseColors = false;
+		pointsMeshSize = pointSize;
+		pointsMeshColor = pointColor;
+		pointsMesh = null;
+	}
+
+	/**
+	 * Builds the points mesh using the defined mesh properties
+	 */
+	protected void buildPointsMesh() {
+		// Fill the mesh buffer with the scan points and convert it to a shape
+		if (pointsMeshBuffer == null) {
+			pointsMeshBuffer = new MeshBuffer();
+		}
+
+		MeshBuffer buffer = pointsMeshBuffer;
+
+		if (pointsMeshUseColors) {
+			buffer.fillPoints(this, pointsMeshNormals);
 		} else {
-			shape.vertex(point.x, point.y, point.z);
+			buffer.fillPoints(this, pointsMeshNormals, pointsMeshColor);
 		}
+
+		pointsMesh = buffer.createShape(p, pointsMeshSize);
 	}
 
 	/**
@@ -411,133 +570,166 @@ public class Scan extends KinectPoints {
 	 * @param lineWidth the width to use for the mesh lines
 	 */
 	public void calculateLinesMesh(boolean addNormals, float lineWidth) {
-		linesMesh = p.createShape();
-		linesMesh.beginShape(PApplet.LINES);
-		linesMesh.strokeCap(PApplet.SQUARE);
-		linesMesh.strokeWeight(lineWidth);
-
-		for (int row = 0; row < height - 1; row++) {
-			for (int col = 0; col < width - 1; col++) {
-				int index = col + row * width;
-
-				if (visibilityMask[index]) {
-					if (visibilityMask[index + 1]) {
-						addLine(linesMesh, index, index + 1, true, addNormals);
-					}
+		defineLinesMesh(addNormals, lineWidth);
+		buildLinesMesh();
+	}
 
-					if (visibilityMask[index + width]) {
-						addLine(linesMesh, index, index + width, true, addNormals);
-					}
+	/**
+	 * Calculates the lines mesh
+	 * 
+	 * @param addNormals add the points normals to the lines mesh if true
+	 * @param lineWidth the width to use for the mesh lines
+	 * @param lineColor the color to use for the mesh lines
+	 */
+	public void calculateLinesMesh(boolean addNormals, float lineWidth, int lineColor) {
+		defineLinesMesh(addNormals, lineWidth, lineColor);
+		buildLinesMesh();
+	}
 
-					if (visibilityMask[index + 1 + width]) {
-						addLine(linesMesh, index, index + 1 + width, true, addNormals);
-					}
-				}
-			}
+	/**
+	 * Defines the lines mesh properties without calculating it. The mesh will be calculated the first time it's drawn,
+	 * and again after the points change. An existing mesh is kept if its properties don't change
+	 * 
+	 * @param addNormals add the points normals to the lines mesh if true
+	 * @param lineWidth the width to use for the mesh lines
+	 */
+	public void defineLinesMesh(boolean addNormals, float lineWidth) {
+		// Keep the current mesh if its properties don't change
+		if (linesMeshDefined && linesMeshNormals == addNormals && linesMeshUseColors && linesMeshWidth == lineWidth) {
+			return;
 		}
 
-		linesMesh.endShape();
+		linesMeshDefined = true;
+		linesMeshNormals = addNormals;
+		linesMeshUseColors = true;
+		linesMeshWidth = lineWidth;
+		linesMesh = null;
 	}
 
 	/**
-	 * Calculates the lines mesh
+	 * Defines the lines mesh properties without calculating it. The mesh will be calculated the first time it's drawn,
+	 * and again after the points change. An existing mesh is kept if its properties don't change
 	 * 
 	 * @param addNormals add the points normals to the lines mesh if true
 	 * @param lineWidth the width to use for the mesh lines
 	 * @param lineColor the color to use for the mesh lines
 	 */
-	public void calculateLinesMesh(boolean addNormals, float lineWidth, int lineColor) {
-		linesMesh = p.createShape();
-		linesMesh.beginShape(PApplet.LINES);
-		linesMesh.strokeCap(PApplet.SQUARE);
-		linesMesh.strokeWeight(lineWidth);
-		linesMesh.stroke(lineColor);
-
-		for (int row = 0; row < height - 1; row++) {
-			for (int col = 0; col < width - 1; col++) {
-				int index = col + row * width;
+	public void defineLinesMesh(boolean addNormals, float lineWidth, int lineColor) {
+		// Keep the current mesh if its properties don't change
+		if (linesMeshDefined && linesMeshNormals == addNormals && !linesMeshUseColors && linesMeshWidth == lineWidth
+				&& linesMeshColor == lineColor) {
+			return;
+		}
 
-				if (visibilityMask[index]) {
-					if (visibilityMask[index + 1]) {
-						addLine(linesMesh, index, index + 1, false, addNormals);
-					}
+		linesMeshDefined = true;
+		linesMeshNormals = addNormals;
+		linesMeshUseColors = false;
+		linesMeshWidth = lineWidth;
+		linesMeshColor = lineColor;
+		linesMesh = null;
+	}
 
-					if (visibilityMask[index + width]) {
-						addLine(linesMesh, index, index + width, false, addNormals);
-					}
+	/**
+	 * Builds the lines mesh using the defined mesh properties
+	 */
+	protected void buildLinesMesh() {
+		// Fill the mesh buffer with the scan lines and convert it to a shape
+		if (linesMeshBuffer == null) {
+			linesMeshBuffer = new MeshBuffer();
+		}
 
-					if (visibilityMask[index + 1 + width]) {
-						addLine(linesMesh, index, index + 1 + width, false, addNormals);
-					}
-				}
-			}
+		MeshBuffer buffer = linesMeshBuffer;
+
+		if (linesMeshUseColors) {
+			buffer.fillLines(this, linesMeshNormals);
+		} else {
+			buffer.fillLines(this, linesMeshNormals, linesMeshColor);
 		}
 
-		linesMesh.endShape();
+		linesMesh = buffer.createShape(p, linesMeshWidth);
 	}
 
 	/**
-	 * Adds a line to the given shape if the two Kinect points are connected
+	 * Defines the indexed mesh properties without calculating it. The indexed mesh will be calculated the first time
+	 * it's drawn, and again after the points change. An existing mesh is kept if its properties don't change
 	 * 
-	 * @param shape the shape where the line should be added
-	 * @param index1 the first point index
-	 * @param index2 the second point index
-	 * @param addColors add the points colors to the shape if true
-	 * @param addNormals add the points normals to the shape if true
+	 * @param addNormals add the points normals to the indexed mesh if true
 	 */
-	protected void addLine(PShape shape, int index1, int index2, boolean addColors, boolean addNormals) {
-		PVector point1 = points[index1];
-		PVector point2 = points[index2];
+	public void defineIndexedMesh(boolean addNormals) {
+		// Keep the current mesh if its properties don't change
+		if (indexedMeshDefined && indexedMeshNormals == addNormals && indexedMeshUseColors) {
+			return;
+		}
 
-		if (connected(point1, point2)) {
-			if (addNormals && normals != null) {
-				PVector normal1 = normals[index1];
-				PVector normal2 = normals[index2];
+		indexedMeshDefined = true;
+		indexedMeshNormals = addNormals;
+		indexedMeshUseColors = true;
+		indexedMeshGeneration = -1;
+	}
 
-				if (addColors) {
-					shape.stroke(colors[index1]);
-					shape.attribNormal("normal", normal1.x, normal1.y, normal1.z);
-					shape.vertex(point1.x, point1.y, point1.z);
-					shape.stroke(colors[index2]);
-					shape.attribNormal("normal", normal2.x, normal2.y, normal2.z);
-					shape.vertex(point2.x, point2.y, point2.z);
-				} else {
-					shape.attribNormal("normal", normal1.x, normal1.y, normal1.z);
-					shape.vertex(point1.x, point1.y, point1.z);
-					shape.attribNormal("normal", normal2.x, normal2.y, normal2.z);
-					shape.vertex(point2.x, point2.y, point2.z);
-				}
-			} else if (addColors) {
-				shape.stroke(colors[index1]);
-				shape.vertex(point1.x, point1.y, point1.z);
-				shape.stroke(colors[index2]);
-				shape.vertex(point2.x, point2.y, point2.z);
-			} else {
-				shape.vertex(point1.x, point1.y, point1.z);
-				shape.vertex(point2.x, point2.y, point2.z);
+	/**
+	 * Defines the indexed mesh properties without calculating it. The indexed mesh will be calculated the first time
+	 * it's drawn, and again after the points change. An existing mesh is kept if its properties don't change
+	 * 
+	 * @param addNormals add the points normals to the indexed mesh if true
+	 * @param frontColor the color to use for the indexed mesh front side
+	 */
+	public void defineIndexedMesh(boolean addNormals, int frontColor) {
+		// Keep the current mesh if its properties don't change
+		if (indexedMeshDefined && indexedMeshNormals == addNormals && !indexedMeshUseColors
+				&& indexedMeshFrontColor == frontColor) {
+			return;
+		}
+
+		indexedMeshDefined = true;
+		indexedMeshNormals = addNormals;
+		indexedMeshUseColors = false;
+		indexedMeshFrontColor = frontColor;
+		indexedMeshGeneration = -1;
+	}
+
+	/**
+	 * Updates the indexed mesh if it's defined and it was calculated with an older version of the points
+	 * 
+	 * @return true if the indexed mesh is ready to be drawn
+	 */
+	protected boolean updateIndexedMesh() {
+		if (!indexedMeshDefined) {
+			return false;
+		}
+
+		if (indexedMeshGeneration != generation) {
+			// Reuse the mesh arrays and GPU buffers if possible
+			if (indexedMesh == null) {
+				indexedMesh = new IndexedMesh(p);
 			}
+
+			indexedMesh.update(this, indexedMeshNormals, indexedMeshUseColors, indexedMeshFrontColor);
+			indexedMeshGeneration = generation;
 		}
+
+		return true;
 	}
 
 	/**
-	 * Updates the scan points with new Kinect data
+	 * Updates the scan points with new Kinect data, constraining their visibilities to a cube delimited by some lower
+	 * and upper corner coordinates
 	 * 
 	 * @param pointsNew the new Kinect 3D points
 	 * @param rgbImgNew the new Kinect color image
 	 * @param depthMapNew the new Kinect depth map
 	 * @param reductionFactor the scale reduction factor
+	 * @param corners an array with the lower and upper corners. It can be null if the points should not be constrained
+	 * @return a points array with the lower and upper corner limits of the visible points. Returns null if there are
+	 *         no visible points
 	 */
-	public void update(PVector[] pointsNew, PImage rgbImgNew, int[] depthMapNew, int reductionFactor) {
-		// Update the main scan arrays
-		super.update(pointsNew, rgbImgNew, depthMapNew, reductionFactor);
-
-		// Update the normals array
-		updateNormals();
+	public PVector[] update(PVector[] pointsNew, PImage rgbImgNew, int[] depthMapNew, int reductionFactor,
+			PVector[] corners) {
+		// Update the main scan arrays. This invalidates the normals, the limits and the meshes
+		PVector[] limits = super.update(pointsNew, rgbImgNew, depthMapNew, reductionFactor, corners);
+		modelMatrix = null;
 
-		// Remove the meshes
-		mesh = null;
-		pointsMesh = null;
-		linesMesh = null;
+		return limits;
 	}
 
 	/**
@@ -551,148 +743,95 @@ public class Scan extends KinectPoints {
 			width = scan.width;
 			height = scan.height;
 			nPoints = width * height;
-			points = new PVector[nPoints];
+			points = new float[3 * nPoints];
 			colors = new int[nPoints];
-			visibilityMask = new boolean[nPoints];
-
-			for (int index = 0; index < nPoints; index++) {
-				points[index] = new PVector();
-			}
+			visibilityMask = new VisibilityMask(nPoints);
 
 			// Initialize the normals array if necessary
 			if (normals != null) {
-				normals = new PVector[nPoints];
-
-				for (int index = 0; index < nPoints; index++) {
-					normals[index] = new PVector();
-				}
+				normals = new float[3 * nPoints];
 			}
 		}
 
 		// Update the main scan arrays
-		for (int index = 0; index < nPoints; index++) {
-			points[index].set(scan.points[index]);
-			colors[index] = scan.colors[index];
-			visibilityMask[index] = scan.visibilityMask[index];
-		}
+		System.arraycopy(scan.points, 0, points, 0, points.length);
+		System.arraycopy(scan.colors, 0, colors, 0, nPoints);
+		visibilityMask.set(scan.visibilityMask);
 
-		// Update the normals array if necessary
-		if (normals != null && scan.normals != null) {
-			for (int index = 0; index < nPoints; index++) {
-				normals[index].set(scan.normals[index]);
-			}
-		} else {
-			updateNormals();
-		}
+		// Invalidate the normals, the limits and the meshes
+		invalidate();
 
-		// Remove the meshes
-		mesh = null;
-		pointsMesh = null;
-		linesMesh = null;
+		// Copy the normals array if they are up to date in the other scan
+		if (normals != null && scan.normals != null && scan.normalsGeneration == scan.generation) {
+			System.arraycopy(scan.normals, 0, normals, 0, normals.length);
+			normalsGeneration = generation;
+		}
 
 		// Set the rest of the scan variables
 		center.set(scan.center);
+		modelMatrix = scan.getModelMatrix();
 		maxPointSeparationSq = scan.maxPointSeparationSq;
 	}
 
 	/**
-	 * Updates the scan points with those contained in a file
+	 * Sets the scan dimensions, resetting the main scan arrays if necessary
 	 * 
-	 * @param fileName the file name
+	 * @param newWidth the new arrays horizontal dimension
+	 * @param newHeight the new arrays vertical dimension
 	 */
-	public void updateFromFile(String fileName) {
-		// Load the file lines containing the scan data
-		String[] fileLines = p.loadStrings(fileName);
-
-		// The scan dimensions are in the first line
-		String[] dimensions = fileLines[0].split(" ");
-		int newWidth = Integer.valueOf(dimensions[0]);
-		int newHeight = Integer.valueOf(dimensions[1]);
-
-		// Reset the main scan arrays if necessary
+	protected void setDimensions(int newWidth, int newHeight) {
 		if (newWidth != width || newHeight != height) {
 			width = newWidth;
 			height = newHeight;
 			nPoints = width * height;
-			points = new PVector[nPoints];
+			points = new float[3 * nPoints];
 			colors = new int[nPoints];
-			visibilityMask = new boolean[nPoints];
-
-			for (int index = 0; index < nPoints; index++) {
-				points[index] = new PVector();
-			}
+			visibilityMask = new VisibilityMask(nPoints);
 		}
+	}
 
-		// Fill the main scan variables
-		center.set(0, 0, 0);
-		int counter = 0;
-
-		for (int index = 0; index < nPoints; index++) {
-			String[] pointsAndColors = fileLines[index + 1].split(" ");
-
-			if (Float.valueOf(pointsAndColors[3]) > 0) {
-				float x = Float.valueOf(pointsAndColors[0]);
-				float y = Float.valueOf(pointsAndColors[1]);
-				float z = Float.valueOf(pointsAndColors[2]);
-				int red = Math.round(Float.valueOf(pointsAndColors[3]));
-				int green = Math.round(Float.valueOf(pointsAndColors[4]));
-				int blue = Math.round(Float.valueOf(pointsAndColors[5]));
-
-				points[index].set(x, y, z);
-				colors[index] = (red << 16) | (green << 8) | blue | 0xff000000;
-				visibilityMask[index] = true;
-				center.add(points[index]);
-				counter++;
-			} else {
-				points[index].set(0, 0, 0);
-				colors[index] = 0;
-				visibilityMask[index] = false;
-			}
-		}
+	/**
+	 * Updates the scan points with those contained in a file. The file can be in the binary or the text points format
+	 * 
+	 * @param fileName the file name
+	 */
+	public void updateFromFile(String fileName) {
+		// Check the file format
+		File file = ScanFileHelper.getInputFile(p, fileName);
 
-		if (counter > 0) {
-			center.div(counter);
+		if (ScanFileHelper.isBinaryFile(file)) {
+			ScanFileHelper.loadBinary(this, file);
+		} else {
+			ScanFileHelper.loadText(this, file);
 		}
 
-		// Update the normals array
-		updateNormals();
+		// The file points have no model transformation
+		modelMatrix = null;
+	}
 
-		// Remove the meshes
-		mesh = null;
-		pointsMesh = null;
-		linesMesh = null;
+	/**
+	 * Saves the scan points, colors and normals on a file with the binary points format
+	 * 
+	 * @param fileName the file name
+	 */
+	public void saveBinaryPoints(String fileName) {
+		ScanFileHelper.saveBinary(getBakedScan(), p.saveFile(fileName));
 	}
 
 	/**
-	 * Save the scan points and colors on a file
+	 * Save the scan points and colors on a file with the text points format
 	 * 
 	 * @param fileName the file name
 	 */
 	public void savePoints(String fileName) {
-		// Create the array that will contain the file lines
-		String[] lines = new String[nPoints + 1];
-
-		// The first line contains the scan dimensions
-		lines[0] = width + " " + height;
-
-		// Write each point coordinates and color on a separate line
-		for (int index = 0; index < nPoints; index++) {
-			if (visibilityMask[index]) {
-				// Center the points coordinates
-				PVector point = PVector.sub(points[index], center);
-				int col = colors[index];
-				int red = (col >> 16) & 0xff;
-				int green = (col >> 8) & 0xff;
-				int blue = col & 0xff;
-				lines[index + 1] = point.x + " " + point.y + " " + point.z + " " + red + " " + green + " " + blue;
-			} else {
-				// Use a dummy line if the point should be masked
-				lines[index + 1] = "-99" + " " + "-99" + " " + "-99" + " " + "-99" + " " + "-99" + " " + "-99";
+		// The output stream will compress the data if the file name ends with .gz
+		try (OutputStream output = p.createOutput(fileName)) {
+			if (output != null) {
+				ScanFileHelper.saveText(getBakedScan(), output);
 			}
+		} catch (IOException e) {
+			System.out.println("Scan class: there was a problem saving the scan points in " + fileName);
 		}
-
-		// Save the data on the file
-		p.saveStrings(fileName, lines);
 	}
 
 	/**
@@ -705,23 +844,22 @@ public class Scan extends KinectPoints {
 		Scan scan = new Scan(p, width, height);
 
 		// Fill the main scan arrays
-		for (int index = 0; index < nPoints; index++) {
-			scan.points[index].set(points[index]);
-			scan.colors[index] = colors[index];
-			scan.visibilityMask[index] = visibilityMask[index];
-		}
+		System.arraycopy(points, 0, scan.points, 0, points.length);
+		System.arraycopy(colors, 0, scan.colors, 0, nPoints);
+		scan.visibilityMask.set(visibilityMask);
 
 		// Fill the normals array if necessary
 		if (normals != null) {
-			scan.normals = new PVector[nPoints];
+			scan.normals = normals.clone();
 
-			for (int index = 0; index < nPoints; index++) {
-				scan.normals[index] = normals[index].copy();
+			if (normalsGeneration == generation) {
+				scan.normalsGeneration = scan.generation;
 			}
 		}
 
 		// Set the rest of the scan variables
 		scan.center.set(center);
+		scan.modelMatrix = getModelMatrix();
 		scan.maxPointSeparationSq = maxPointSeparationSq;
 
 		return scan;
@@ -733,16 +871,11 @@ public class Scan extends KinectPoints {
 	 * @param corners an array with the lower and upper corners
 	 */
 	public void constrainPoints(PVector[] corners) {
-		// Constrain the points visibilities
-		super.constrainPoints(corners);
-
-		// Update the normals array
-		updateNormals();
+		// The corners refer to the transformed points
+		bake();
 
-		// Remove the meshes
-		mesh = null;
-		pointsMesh = null;
-		linesMesh = null;
+		// Constrain the points visibilities. This invalidates the normals, the limits and the meshes
+		super.constrainPoints(corners);
 	}
 
 	/**
@@ -756,9 +889,9 @@ public class Scan extends KinectPoints {
 			int widthNew = width / reductionFactor + 2;
 			int heightNew = height / reductionFactor + 2;
 			int nPointsNew = widthNew * heightNew;
-			PVector[] pointsNew = new PVector[nPointsNew];
+			float[] pointsNew = new float[3 * nPointsNew];
 			int[] colorsNew = new int[nPointsNew];
-			boolean[] visibilityMaskNew = new boolean[nPointsNew];
+			VisibilityMask visibilityMaskNew = new VisibilityMask(nPointsNew);
 
 			// Populate the arrays
 			for (int row = 0; row < heightNew; row++) {
@@ -766,7 +899,9 @@ public class Scan extends KinectPoints {
 					int indexNew = col + row * widthNew;
 
 					// Average between nearby pixels
-					PVector pointAverage = new PVector();
+					float xAverage = 0;
+					float yAverage = 0;
+					float zAverage = 0;
 					int redAverage = 0;
 					int greenAverage = 0;
 					int blueAverage = 0;
@@ -780,8 +915,10 @@ public class Scan extends KinectPoints {
 							if (colNearby >= 0 && colNearby < width && rowNearby >= 0 && rowNearby < height) {
 								int indexNearby = colNearby + rowNearby * width;
 
-								if (visibilityMask[indexNearby]) {
-									pointAverage.add(points[indexNearby]);
+								if (visibilityMask.get(indexNearby)) {
+									xAverage += points[3 * indexNearby];
+									yAverage += points[3 * indexNearby + 1];
+									zAverage += points[3 * indexNearby + 2];
 									int color = colors[indexNearby];
 									redAverage += (color >> 16) & 0xff;
 									greenAverage += (color >> 8) & 0xff;
@@ -793,12 +930,12 @@ public class Scan extends KinectPoints {
 					}
 
 					if (counter > 0) {
-						pointsNew[indexNew] = pointAverage.div(counter);
+						pointsNew[3 * indexNew] = xAverage / counter;
+						pointsNew[3 * indexNew + 1] = yAverage / counter;
+						pointsNew[3 * indexNew + 2] = zAverage / counter;
 						colorsNew[indexNew] = ((redAverage / counter) << 16) | ((greenAverage / counter) << 8)
 								| (blueAverage / counter) | 0xff000000;
-						visibilityMaskNew[indexNew] = true;
-					} else {
-						pointsNew[indexNew] = pointAverage;
+						visibilityMaskNew.set(indexNew);
 					}
 				}
 			}
@@ -811,84 +948,222 @@ public class Scan extends KinectPoints {
 			colors = colorsNew;
 			visibilityMask = visibilityMaskNew;
 
-			// Update the normals array
-			updateNormals();
-
-			// Remove the meshes
-			mesh = null;
-			pointsMesh = null;
-			linesMesh = null;
+			// Invalidate the normals, the limits and the meshes
+			invalidate();
 		}
 	}
 
 	/**
-	 * Translates the scan position and the scan center
+	 * Translates the scan position and the scan center. The translation is added to the scan model transformation
 	 * 
 	 * @param translationVector the translation vector
 	 */
 	public void translate(PVector translationVector) {
-		// Translate the scan points
-		for (PVector point : points) {
-			point.add(translationVector);
+		PMatrix3D matrix = new PMatrix3D();
+		matrix.translate(translationVector.x, translationVector.y, translationVector.z);
+		applyModelMatrix(matrix);
+
+		// Translate the scan center
+		center.add(translationVector);
+	}
+
+	/**
+	 * Rotates the scan around the scan center. The rotation is added to the scan model transformation
+	 * 
+	 * @param rotationAngle the scan rotation angle in radians
+	 */
+	public void rotate(float rotationAngle) {
+		// The scan rotation has the opposite sign than the Processing rotateY method
+		PMatrix3D matrix = new PMatrix3D();
+		matrix.translate(center.x, center.y, center.z);
+		matrix.rotateY(-rotationAngle);
+		matrix.translate(-center.x, -center.y, -center.z);
+		applyModelMatrix(matrix);
+	}
+
+	/**
+	 * Increases or decreases the size of the scan by a given factor. The scaling is added to the scan model
+	 * transformation
+	 * 
+	 * @param scaleFactor the size scaling factor
+	 */
+	public void scale(float scaleFactor) {
+		PMatrix3D matrix = new PMatrix3D();
+		matrix.translate(center.x, center.y, center.z);
+		matrix.scale(scaleFactor);
+		matrix.translate(-center.x, -center.y, -center.z);
+		applyModelMatrix(matrix);
+	}
+
+	/**
+	 * Applies an affine transformation to the scan. The transformation is added to the scan model transformation and
+	 * the scan center is transformed with it
+	 * 
+	 * @param matrix the affine transformation matrix
+	 */
+	public void transform(PMatrix3D matrix) {
+		applyModelMatrix(matrix);
+
+		// Transform the scan center
+		center.set(matrix.mult(center, null));
+	}
+
+	/**
+	 * Adds a transformation to the scan model transformation. The new transformation is applied after the current one
+	 * 
+	 * @param matrix the transformation matrix
+	 */
+	protected void applyModelMatrix(PMatrix3D matrix) {
+		if (modelMatrix == null) {
+			modelMatrix = matrix.get();
+		} else {
+			modelMatrix.preApply(matrix);
+		}
+	}
+
+	/**
+	 * Sets the scan model transformation, that is applied to the scan points when they are drawn or saved
+	 * 
+	 * @param newModelMatrix the new model transformation matrix. It can be null if there is no transformation
+	 */
+	public void setModelMatrix(PMatrix3D newModelMatrix) {
+		modelMatrix = newModelMatrix == null ? null : newModelMatrix.get();
+	}
+
+	/**
+	 * Returns a copy of the scan model transformation
+	 * 
+	 * @return a copy of the model transformation matrix. Returns null if there is no transformation
+	 */
+	public PMatrix3D getModelMatrix() {
+		return modelMatrix == null ? null : modelMatrix.get();
+	}
+
+	/**
+	 * Applies the model transformation to the scan points and normals, and removes it from the scan. If the
+	 * transformation is a combination of rotations, uniform scalings, reflections and translations, the normals are
+	 * transformed with the points in a single pass, using the cofactor matrix of the linear part of the transformation.
+	 * Otherwise, the normals are recalculated, because the neighbor contributions to the normals are not transformed in
+	 * the same way
+	 */
+	public void bake() {
+		if (modelMatrix == null) {
+			return;
 		}
 
-		// Translate the scan center
-		center.add(translationVector);
+		PMatrix3D matrix = modelMatrix;
+		modelMatrix = null;
+
+		// Get the transformation matrix elements
+		float m00 = matrix.m00;
+		float m01 = matrix.m01;
+		float m02 = matrix.m02;
+		float m03 = matrix.m03;
+		float m10 = matrix.m10;
+		float m11 = matrix.m11;
+		float m12 = matrix.m12;
+		float m13 = matrix.m13;
+		float m20 = matrix.m20;
+		float m21 = matrix.m21;
+		float m22 = matrix.m22;
+		float m23 = matrix.m23;
+
+		// Calculate the cofactor matrix of the linear part
+		float c00 = m11 * m22 - m12 * m21;
+		float c01 = m12 * m20 - m10 * m22;
+		float c02 = m10 * m21 - m11 * m20;
+		float c10 = m02 * m21 - m01 * m22;
+		float c11 = m00 * m22 - m02 * m20;
+		float c12 = m01 * m20 - m00 * m21;
+		float c20 = m01 * m12 - m02 * m11;
+		float c21 = m02 * m10 - m00 * m12;
+		float c22 = m00 * m11 - m01 * m10;
+		float determinant = m00 * c00 + m01 * c01 + m02 * c02;
+
+		// Check if the linear part is a rotation multiplied by a scaling factor (the columns should be orthogonal and
+		// have the same length)
+		float lengthSq0 = m00 * m00 + m10 * m10 + m20 * m20;
+		float lengthSq1 = m01 * m01 + m11 * m11 + m21 * m21;
+		float lengthSq2 = m02 * m02 + m12 * m12 + m22 * m22;
+		float tolerance = 1e-4f * (lengthSq0 + lengthSq1 + lengthSq2);
+		boolean similarity = determinant != 0 && Math.abs(lengthSq0 - lengthSq1) <= tolerance
+				&& Math.abs(lengthSq0 - lengthSq2) <= tolerance
+				&& Math.abs(m00 * m01 + m10 * m11 + m20 * m21) <= tolerance
+				&& Math.abs(m00 * m02 + m10 * m12 + m20 * m22) <= tolerance
+				&& Math.abs(m01 * m02 + m11 * m12 + m21 * m22) <= tolerance;
+		boolean transformNormals = normals != null && normalsGeneration == generation && similarity;
+
+		// Transform the scan points and normals
+		for (int index = 0; index < nPoints; index++) {
+			float x = points[3 * index];
+			float y = points[3 * index + 1];
+			float z = points[3 * index + 2];
+			points[3 * index] = m00 * x + m01 * y + m02 * z + m03;
+			points[3 * index + 1] = m10 * x + m11 * y + m12 * z + m13;
+			points[3 * index + 2] = m20 * x + m21 * y + m22 * z + m23;
+
+			if (transformNormals) {
+				float nx = normals[3 * index];
+				float ny = normals[3 * index + 1];
+				float nz = normals[3 * index + 2];
+				float nxNew = c00 * nx + c01 * ny + c02 * nz;
+				float nyNew = c10 * nx + c11 * ny + c12 * nz;
+				float nzNew = c20 * nx + c21 * ny + c22 * nz;
+				float norm = (float) Math.sqrt(nxNew * nxNew + nyNew * nyNew + nzNew * nzNew);
+
+				if (norm != 0) {
+					normals[3 * index] = nxNew / norm;
+					normals[3 * index + 1] = nyNew / norm;
+					normals[3 * index + 2] = nzNew / norm;
+				}
+			}
+		}
+
+		// Invalidate the normals, the limits and the meshes. The normals will be recalculated only if they could not be
+		// transformed
+		invalidate();
+
+		if (transformNormals) {
+			normalsGeneration = generation;
+		}
 
-		// Remove the meshes
-		mesh = null;
-		pointsMesh = null;
-		linesMesh = null;
+		// Update the maximum scan separation between points using the average scaling
+		setMaxPointSeparation((float) Math.cbrt(Math.abs(determinant)) * getMaxPointSeparation());
 	}
 
 	/**
-	 * Rotates the scan around the scan center
+	 * Returns a scan with the model transformation applied to the points
 	 * 
-	 * @param rotationAngle the scan rotation angle in radians
+	 * @return the scan itself if it has no model transformation, or a baked copy of the scan otherwise
 	 */
-	public void rotate(float rotationAngle) {
-		// Rotate the scan points around the scan center
-		float cos = (float) Math.cos(rotationAngle);
-		float sin = (float) Math.sin(rotationAngle);
-
-		for (PVector point : points) {
-			point.sub(center);
-			point.set(cos * point.x - sin * point.z, point.y, sin * point.x + cos * point.z);
-			point.add(center);
+	protected Scan getBakedScan() {
+		if (modelMatrix == null) {
+			return this;
 		}
 
-		// Update the normals array
-		updateNormals();
+		Scan scan = copy();
+		scan.bake();
 
-		// Remove the meshes
-		mesh = null;
-		pointsMesh = null;
-		linesMesh = null;
+		return scan;
 	}
 
 	/**
-	 * Increases or decreases the size of the scan by a given factor
-	 * 
-	 * @param scaleFactor the size scaling factor
+	 * Applies the scan model transformation to the current Processing matrix
 	 */
-	public void scale(float scaleFactor) {
-		// Scale the scan points
-		for (PVector point : points) {
-			point.sub(center);
-			point.mult(scaleFactor);
-			point.add(center);
+	protected void pushModelMatrix() {
+		if (modelMatrix != null) {
+			p.pushMatrix();
+			p.applyMatrix(modelMatrix);
 		}
+	}
 
-		// Update the normals array
-		updateNormals();
-
-		// Remove the meshes
-		mesh = null;
-		pointsMesh = null;
-		linesMesh = null;
-
-		// Update the maximum scan separation between points
-		setMaxPointSeparation(scaleFactor * getMaxPointSeparation());
+	/**
+	 * Restores the Processing matrix after a call to pushModelMatrix
+	 */
+	protected void popModelMatrix() {
+		if (modelMatrix != null) {
+			p.popMatrix();
+		}
 	}
 
 	/**
@@ -900,25 +1175,21 @@ public class Scan extends KinectPoints {
 		int colEnd = Integer.MIN_VALUE;
 		int rowIni = Integer.MAX_VALUE;
 		int rowEnd = Integer.MIN_VALUE;
+		int firstIndex = visibilityMask.nextSetBit(0);
 
-		for (int row = 0; row < height; row++) {
-			for (int col = 0; col < width; col++) {
-				if (visibilityMask[col + row * width]) {
-					if (col < colIni) {
-						colIni = col;
-					}
-
-					if (col > colEnd) {
-						colEnd = col;
-					}
+		if (firstIndex >= 0) {
+			// The first and last visible points fix the row limits
+			rowIni = firstIndex / width;
+			rowEnd = visibilityMask.previousSetBit(nPoints - 1) / width;
 
-					if (row < rowIni) {
-						rowIni = row;
-					}
+			// Only the first and last visible points in each row can change the column limits
+			for (int row = rowIni; row <= rowEnd; row++) {
+				int first = visibilityMask.nextSetBit(row * width);
 
-					if (row > rowEnd) {
-						rowEnd = row;
-					}
+				if (first >= 0 && first < (row + 1) * width) {
+					int last = visibilityMask.previousSetBit((row + 1) * width - 1);
+					colIni = Math.min(colIni, first - row * width);
+					colEnd = Math.max(colEnd, last - row * width);
 				}
 			}
 		}
@@ -939,19 +1210,17 @@ public class Scan extends KinectPoints {
 		if (widthNew != width || heightNew != height) {
 			// Create the new arrays
 			int nPointsNew = widthNew * heightNew;
-			PVector[] pointsNew = new PVector[nPointsNew];
+			float[] pointsNew = new float[3 * nPointsNew];
 			int[] colorsNew = new int[nPointsNew];
-			boolean[] visibilityMaskNew = new boolean[nPointsNew];
+			VisibilityMask visibilityMaskNew = new VisibilityMask(nPointsNew);
 
 			// Populate the new arrays
 			for (int row = 0; row < heightNew; row++) {
-				for (int col = 0; col < widthNew; col++) {
-					int indexNew = col + row * widthNew;
-					int index = (colIni + col) + (rowIni + row) * width;
-					pointsNew[indexNew] = points[index];
-					colorsNew[indexNew] = colors[index];
-					visibilityMaskNew[indexNew] = visibilityMask[index];
-				}
+				int indexNew = row * widthNew;
+				int index = colIni + (rowIni + row) * width;
+				System.arraycopy(points, 3 * index, pointsNew, 3 * indexNew, 3 * widthNew);
+				System.arraycopy(colors, index, colorsNew, indexNew, widthNew);
+				visibilityMaskNew.copyRange(visibilityMask, index, indexNew, widthNew);
 			}
 
 			// Update the arrays to the new dimensions
@@ -962,13 +1231,8 @@ public class Scan extends KinectPoints {
 			colors = colorsNew;
 			visibilityMask = visibilityMaskNew;
 
-			// Update the normals array
-			updateNormals();
-
-			// Remove the meshes
-			mesh = null;
-			pointsMesh = null;
-			linesMesh = null;
+			// Invalidate the normals, the limits and the meshes
+			invalidate();
 		}
 	}
 
@@ -983,26 +1247,20 @@ public class Scan extends KinectPoints {
 		if (widthNew >= width && heightNew >= height && (widthNew != width || heightNew != height)) {
 			// Create the new extended arrays
 			int nPointsNew = widthNew * heightNew;
-			PVector[] pointsNew = new PVector[nPointsNew];
+			float[] pointsNew = new float[3 * nPointsNew];
 			int[] colorsNew = new int[nPointsNew];
-			boolean[] visibilityMaskNew = new boolean[nPointsNew];
-
-			for (int index = 0; index < nPointsNew; index++) {
-				pointsNew[index] = new PVector();
-			}
+			VisibilityMask visibilityMaskNew = new VisibilityMask(nPointsNew);
 
 			// Populate the new arrays
 			int startCol = (widthNew - width) / 2;
 			int startRow = (heightNew - height) / 2;
 
 			for (int row = 0; row < height; row++) {
-				for (int col = 0; col < width; col++) {
-					int index = col + row * width;
-					int indexNew = (startCol + col) + (startRow + row) * widthNew;
-					pointsNew[indexNew].set(points[index]);
-					colorsNew[indexNew] = colors[index];
-					visibilityMaskNew[indexNew] = visibilityMask[index];
-				}
+				int index = row * width;
+				int indexNew = startCol + (startRow + row) * widthNew;
+				System.arraycopy(points, 3 * index, pointsNew, 3 * indexNew, 3 * width);
+				System.arraycopy(colors, index, colorsNew, indexNew, width);
+				visibilityMaskNew.copyRange(visibilityMask, index, indexNew, width);
 			}
 
 			// Update the arrays to the new dimensions
@@ -1013,13 +1271,8 @@ public class Scan extends KinectPoints {
 			colors = colorsNew;
 			visibilityMask = visibilityMaskNew;
 
-			// Update the normals array
-			updateNormals();
-
-			// Remove the meshes
-			mesh = null;
-			pointsMesh = null;
-			linesMesh = null;
+			// Invalidate the normals, the limits and the meshes
+			invalidate();
 		}
 	}
 
@@ -1027,6 +1280,9 @@ public class Scan extends KinectPoints {
 	 * Extends the scan arrays dimensions to have the scan central point in the middle of the arrays
 	 */
 	public void extendFromCenter() {
+		// The scan center refers to the transformed points
+		bake();
+
 		// Obtain the pixel position of the point closest to the scan center in the x,y plane
 		int[] centralPointPixel = obtainCentralPoint();
 
@@ -1038,26 +1294,20 @@ public class Scan extends KinectPoints {
 		if (widthNew >= width && heightNew >= height && (widthNew != width || heightNew != height)) {
 			// Create the new extended arrays
 			int nPointsNew = widthNew * heightNew;
-			PVector[] pointsNew = new PVector[nPointsNew];
+			float[] pointsNew = new float[3 * nPointsNew];
 			int[] colorsNew = new int[nPointsNew];
-			boolean[] visibilityMaskNew = new boolean[nPointsNew];
-
-			for (int index = 0; index < nPointsNew; index++) {
-				pointsNew[index] = new PVector();
-			}
+			VisibilityMask visibilityMaskNew = new VisibilityMask(nPointsNew);
 
 			// Populate the new arrays
 			int startCol = centralPointPixel[0] > (width - 1 - centralPointPixel[0]) ? 0 : widthNew - width;
 			int startRow = centralPointPixel[1] > (height - 1 - centralPointPixel[1]) ? 0 : heightNew - height;
 
 			for (int row = 0; row < height; row++) {
-				for (int col = 0; col < width; col++) {
-					int index = col + row * width;
-					int indexNew = (startCol + col) + (startRow + row) * widthNew;
-					pointsNew[indexNew].set(points[index]);
-					colorsNew[indexNew] = colors[index];
-					visibilityMaskNew[indexNew] = visibilityMask[index];
-				}
+				int index = row * width;
+				int indexNew = startCol + (startRow + row) * widthNew;
+				System.arraycopy(points, 3 * index, pointsNew, 3 * indexNew, 3 * width);
+				System.arraycopy(colors, index, colorsNew, indexNew, width);
+				visibilityMaskNew.copyRange(visibilityMask, index, indexNew, width);
 			}
 
 			// Update the arrays to the new dimensions
@@ -1068,13 +1318,8 @@ public class Scan extends KinectPoints {
 			colors = colorsNew;
 			visibilityMask = visibilityMaskNew;
 
-			// Update the normals array
-			updateNormals();
-
-			// Remove the meshes
-			mesh = null;
-			pointsMesh = null;
-			linesMesh = null;
+			// Invalidate the normals, the limits and the meshes
+			invalidate();
 		}
 	}
 
@@ -1091,9 +1336,9 @@ public class Scan extends KinectPoints {
 			for (int col = 0; col < width; col++) {
 				int index = col + row * width;
 
-				if (visibilityMask[index]) {
-					PVector point = points[index];
-					float distanceSq = PApplet.sq(point.x - center.x) + PApplet.sq(point.y - center.y);
+				if (visibilityMask.get(index)) {
+					float distanceSq = PApplet.sq(points[3 * index] - center.x)
+							+ PApplet.sq(points[3 * index + 1] - center.y);
 
 					if (distanceSq < minDistanceSq) {
 						minDistanceSq = distanceSq;
@@ -1121,7 +1366,7 @@ public class Scan extends KinectPoints {
 				int index = col + row * width;
 
 				// Check if we are at the beginning of a hole
-				if (!visibilityMask[index] && visibilityMask[index - 1]) {
+				if (!visibilityMask.get(index) && visibilityMask.get(index - 1)) {
 					// Calculate the limits of the hole
 					boolean holeCloses = false;
 					int startIndex = index - 1;
@@ -1131,7 +1376,7 @@ public class Scan extends KinectPoints {
 						finishIndex = i + row * width;
 
 						// Check if we found the hole end
-						if (visibilityMask[finishIndex]) {
+						if (visibilityMask.get(finishIndex)) {
 							holeCloses = true;
 
 							// The column loop should continue from the end of the hole
@@ -1151,15 +1396,19 @@ public class Scan extends KinectPoints {
 						float deltaRed = (((finishColor >> 16) & 0xff) - startRed) * delta;
 						float deltaGreen = (((finishColor >> 8) & 0xff) - startGreen) * delta;
 						float deltaBlue = ((finishColor & 0xff) - startBlue) * delta;
-						PVector deltaDirection = PVector.sub(points[finishIndex], points[startIndex]).mult(delta);
+						float deltaX = (points[3 * finishIndex] - points[3 * startIndex]) * delta;
+						float deltaY = (points[3 * finishIndex + 1] - points[3 * startIndex + 1]) * delta;
+						float deltaZ = (points[3 * finishIndex + 2] - points[3 * startIndex + 2]) * delta;
 
 						for (int i = startIndex + 1; i < finishIndex; i++) {
 							int pixelRed = Math.round(startRed + (i - startIndex) * deltaRed);
 							int pixelGreen = Math.round(startGreen + (i - startIndex) * deltaGreen);
 							int pixelBlue = Math.round(startBlue + (i - startIndex) * deltaBlue);
-							points[i].set(points[i - 1]).add(deltaDirection);
+							points[3 * i] = points[3 * (i - 1)] + deltaX;
+							points[3 * i + 1] = points[3 * (i - 1) + 1] + deltaY;
+							points[3 * i + 2] = points[3 * (i - 1) + 2] + deltaZ;
 							colors[i] = (pixelRed << 16) | (pixelGreen << 8) | pixelBlue | 0xff000000;
-							visibilityMask[i] = true;
+							visibilityMask.set(i);
 						}
 
 						// At least one hole has been filled
@@ -1171,13 +1420,8 @@ public class Scan extends KinectPoints {
 
 		// Check if the scan changed
 		if (holesHaveBeenFilled) {
-			// Update the normals array
-			updateNormals();
-
-			// Remove the meshes
-			mesh = null;
-			pointsMesh = null;
-			linesMesh = null;
+			// Invalidate the normals, the limits and the meshes
+			invalidate();
 		}
 	}
 
@@ -1210,14 +1454,16 @@ public class Scan extends KinectPoints {
 			}
 
 			// Calculate the smoothed points
-			PVector[] smoothedPoints = new PVector[nPoints];
+			float[] smoothedPoints = new float[3 * nPoints];
 
 			for (int row = 0; row < height; row++) {
 				for (int col = 0; col < width; col++) {
 					int index = col + row * width;
 
-					if (visibilityMask[index]) {
-						PVector pointsSum = new PVector();
+					if (visibilityMask.get(index)) {
+						float xSum = 0;
+						float ySum = 0;
+						float zSum = 0;
 						float kernelValueCounter = 0;
 
 						for (int i = 0; i < kernelSize; i++) {
@@ -1229,13 +1475,13 @@ public class Scan extends KinectPoints {
 								if (colStep >= 0 && colStep < width && rowStep >= 0 && rowStep < height) {
 									int indexStep = colStep + rowStep * width;
 
-									if (visibilityMask[indexStep]) {
-										PVector pointStep = points[indexStep];
+									if (visibilityMask.get(indexStep)) {
 										float kernelValue = kernel[i][j];
 
-										if (kernelValue != 0 && connected(points[index], pointStep)) {
-											pointsSum.add(kernelValue * pointStep.x, kernelValue * pointStep.y,
-													kernelValue * pointStep.z);
+										if (kernelValue != 0 && connected(index, indexStep)) {
+											xSum += kernelValue * points[3 * indexStep];
+											ySum += kernelValue * points[3 * indexStep + 1];
+											zSum += kernelValue * points[3 * indexStep + 2];
 											kernelValueCounter += kernelValue;
 										}
 									}
@@ -1243,9 +1489,13 @@ public class Scan extends KinectPoints {
 							}
 						}
 
-						smoothedPoints[index] = pointsSum.div(kernelValueCounter);
+						smoothedPoints[3 * index] = xSum / kernelValueCounter;
+						smoothedPoints[3 * index + 1] = ySum / kernelValueCounter;
+						smoothedPoints[3 * index + 2] = zSum / kernelValueCounter;
 					} else {
-						smoothedPoints[index] = points[index];
+						smoothedPoints[3 * index] = points[3 * index];
+						smoothedPoints[3 * index + 1] = points[3 * index + 1];
+						smoothedPoints[3 * index + 2] = points[3 * index + 2];
 					}
 				}
 			}
@@ -1253,14 +1503,256 @@ public class Scan extends KinectPoints {
 			// Update the points array
 			points = smoothedPoints;
 
-			// Update the normals array
-			updateNormals();
+			// Invalidate the normals, the limits and the meshes
+			invalidate();
+		}
+	}
+
+	/**
+	 * Smooths the scan points using a square Gaussian kernel. Only the visible points connected to the central point
+	 * contribute to the smoothing, as in gaussianSmooth, but the kernel covers the full square instead of a circle.
+	 * 
+	 * The kernel is applied first along the rows and then along the columns for the points whose window is fully
+	 * visible and fits inside a box smaller than the maximum point separation, because then all the window points are
+	 * connected to the central point. The rest of the points are smoothed with the two dimensional kernel. The rows
+	 * are processed in parallel
+	 * 
+	 * @param kernelSize the kernel size. Should be an odd number larger than 1
+	 */
+	public void gaussianSmoothSeparable(int kernelSize) {
+		if (kernelSize > 1) {
+			// Make sure that the kernel size is an odd number
+			if (kernelSize % 2 == 0) {
+				kernelSize++;
+			}
+
+			// Create the one dimensional Gaussian kernel
+			final int kernelMiddlePoint = (kernelSize - 1) / 2;
+			final float[] kernel = new float[kernelSize];
+			float sigmaSq = PApplet.sq(kernelMiddlePoint / 2f);
+			float kernelSum = 0;
+
+			for (int i = 0; i < kernelSize; i++) {
+				kernel[i] = PApplet.pow(2.718f, -PApplet.sq(i - kernelMiddlePoint) / (2 * sigmaSq));
+				kernelSum += kernel[i];
+			}
+
+			final float kernelNorm = kernelSum;
+
+			// Make sure that the scratch arrays have the correct size
+			if (smoothingOutput == null || smoothingOutput.length != points.length) {
+				smoothingRowVisible = new boolean[nPoints];
+				smoothingRowPoints = new float[3 * nPoints];
+				smoothingRowBoxes = new float[6 * nPoints];
+				smoothingOutput = new float[3 * nPoints];
+			}
+
+			final boolean[] rowVisible = smoothingRowVisible;
+			final float[] rowPoints = smoothingRowPoints;
+			final float[] rowBoxes = smoothingRowBoxes;
+			final float[] smoothedPoints = smoothingOutput;
+
+			// Smooth the points along the rows, saving the bounding box of the row windows that are fully visible
+			ParallelHelper.run(height, MIN_ROWS_PER_TASK, new ParallelHelper.RangeTask() {
+				public void run(int start, int end) {
+					for (int row = start; row < end; row++) {
+						for (int col = 0; col < width; col++) {
+							int index = col + row * width;
+							int firstIndex = index - kernelMiddlePoint;
+							boolean visible = col >= kernelMiddlePoint && col < width - kernelMiddlePoint;
+
+							for (int i = 0; visible && i < kernel.length; i++) {
+								visible = visibilityMask.get(firstIndex + i);
+							}
+
+							if (visible) {
+								smoothLine(index, firstIndex, 1, kernel, kernelNorm, points, rowPoints, rowBoxes);
+							}
+
+							rowVisible[index] = visible;
+						}
+					}
+				}
+			});
+
+			// Smooth the points along the columns if their window is fully visible and connected
+
+			ParallelHelper.run(height, MIN_ROWS_PER_TASK, new ParallelHelper.RangeTask() {
+				public void run(int start, int end) {
+					float[] columnBox = new float[6];
+
+					for (int row = start; row < end; row++) {
+						for (int col = 0; col < width; col++) {
+							int index = col + row * width;
+
+							if (visibilityMask.get(index)) {
+								// Check that all the window rows are fully visible
+								int firstIndex = index - kernelMiddlePoint * width;
+								boolean separable = row >= kernelMiddlePoint && row < height - kernelMiddlePoint;
+
+								for (int i = 0; separable && i < kernel.length; i++) {
+									separable = rowVisible[firstIndex + i * width];
+								}
+
+								// Check that the window points fit inside a box smaller than the maximum separation
+								if (separable) {
+									smoothLine(index, firstIndex, width, kernel, kernelNorm, rowPoints, smoothedPoints,
+											null);
+									separable = windowSize(firstIndex, width, kernel.length, rowBoxes,
+											columnBox) < maxPointSeparationSq;
+								}
+
+								if (!separable) {
+									smoothPoint(index, row, col, kernelMiddlePoint, kernel, smoothedPoints);
+								}
+							} else {
+								smoothedPoints[3 * index] = points[3 * index];
+								smoothedPoints[3 * index + 1] = points[3 * index + 1];
+								smoothedPoints[3 * index + 2] = points[3 * index + 2];
+							}
+						}
+					}
+				}
+			});
+
+			// Update the points array, keeping the old array for the next smoothing
+			smoothingOutput = points;
+			points = smoothedPoints;
+
+			// Invalidate the normals, the limits and the meshes
+			invalidate();
+		}
+	}
+
+	/**
+	 * Releases the scratch arrays used by the filters and the smoothing methods. They will be created again the next
+	 * time they are needed
+	 */
+	public void releaseScratchArrays() {
+		super.releaseScratchArrays();
+		smoothingRowVisible = null;
+		smoothingRowPoints = null;
+		smoothingRowBoxes = null;
+		smoothingOutput = null;
+	}
+
+	/**
+	 * Smooths a point using a line of points and a normalized one dimensional kernel
+	 * 
+	 * @param index the point index
+	 * @param firstIndex the index of the first point in the line
+	 * @param step the index step between consecutive points in the line
+	 * @param kernel the one dimensional kernel
+	 * @param kernelNorm the sum of the kernel values
+	 * @param input the array with the coordinates to smooth
+	 * @param output the array where the smoothed coordinates will be saved
+	 * @param boxes the array where the line bounding box will be saved. Can be null
+	 */
+	protected static void smoothLine(int index, int firstIndex, int step, float[] kernel, float kernelNorm,
+			float[] input, float[] output, float[] boxes) {
+		float xSum = 0;
+		float ySum = 0;
+		float zSum = 0;
+		float xMin = Float.MAX_VALUE;
+		float yMin = Float.MAX_VALUE;
+		float zMin = Float.MAX_VALUE;
+		float xMax = -Float.MAX_VALUE;
+		float yMax = -Float.MAX_VALUE;
+		float zMax = -Float.MAX_VALUE;
+
+		for (int i = 0, indexStep = firstIndex; i < kernel.length; i++, indexStep += step) {
+			float x = input[3 * indexStep];
+			float y = input[3 * indexStep + 1];
+			float z = input[3 * indexStep + 2];
+			xSum += kernel[i] * x;
+			ySum += kernel[i] * y;
+			zSum += kernel[i] * z;
+			xMin = Math.min(xMin, x);
+			yMin = Math.min(yMin, y);
+			zMin = Math.min(zMin, z);
+			xMax = Math.max(xMax, x);
+			yMax = Math.max(yMax, y);
+			zMax = Math.max(zMax, z);
+		}
+
+		output[3 * index] = xSum / kernelNorm;
+		output[3 * index + 1] = ySum / kernelNorm;
+		output[3 * index + 2] = zSum / kernelNorm;
+
+		if (boxes != null) {
+			boxes[6 * index] = xMin;
+			boxes[6 * index + 1] = yMin;
+			boxes[6 * index + 2] = zMin;
+			boxes[6 * index + 3] = xMax;
+			boxes[6 * index + 4] = yMax;
+			boxes[6 * index + 5] = zMax;
+		}
+	}
+
+	/**
+	 * Returns the squared diagonal of the bounding box that contains a line of bounding boxes
+	 * 
+	 * @param firstIndex the index of the first bounding box in the line
+	 * @param step the index step between consecutive bounding boxes in the line
+	 * @param nBoxes the number of bounding boxes in the line
+	 * @param boxes the array with the bounding boxes
+	 * @param box the array where the combined bounding box will be saved
+	 * @return the squared diagonal of the combined bounding box
+	 */
+	protected static float windowSize(int firstIndex, int step, int nBoxes, float[] boxes, float[] box) {
+		System.arraycopy(boxes, 6 * firstIndex, box, 0, 6);
+
+		for (int i = 1, indexStep = firstIndex + step; i < nBoxes; i++, indexStep += step) {
+			for (int j = 0; j < 3; j++) {
+				box[j] = Math.min(box[j], boxes[6 * indexStep + j]);
+				box[j + 3] = Math.max(box[j + 3], boxes[6 * indexStep + j + 3]);
+			}
+		}
+
+		return PApplet.sq(box[3] - box[0]) + PApplet.sq(box[4] - box[1]) + PApplet.sq(box[5] - box[2]);
+	}
 
-			// Remove the meshes
-			mesh = null;
-			pointsMesh = null;
-			linesMesh = null;
+	/**
+	 * Smooths a point using the connected visible points inside a square window and a separable kernel
+	 * 
+	 * @param index the point index
+	 * @param row the point row
+	 * @param col the point column
+	 * @param kernelMiddlePoint the kernel middle point
+	 * @param kernel the one dimensional kernel
+	 * @param output the array where the smoothed coordinates will be saved
+	 */
+	protected void smoothPoint(int index, int row, int col, int kernelMiddlePoint, float[] kernel, float[] output) {
+		float xSum = 0;
+		float ySum = 0;
+		float zSum = 0;
+		float kernelValueCounter = 0;
+
+		for (int i = 0; i < kernel.length; i++) {
+			int rowStep = row - kernelMiddlePoint + i;
+
+			if (rowStep >= 0 && rowStep < height) {
+				for (int j = 0; j < kernel.length; j++) {
+					int colStep = col - kernelMiddlePoint + j;
+
+					if (colStep >= 0 && colStep < width) {
+						int indexStep = colStep + rowStep * width;
+
+						if (visibilityMask.get(indexStep) && connected(index, indexStep)) {
+							float kernelValue = kernel[i] * kernel[j];
+							xSum += kernelValue * points[3 * indexStep];
+							ySum += kernelValue * points[3 * indexStep + 1];
+							zSum += kernelValue * points[3 * indexStep + 2];
+							kernelValueCounter += kernelValue;
+						}
+					}
+				}
+			}
 		}
+
+		output[3 * index] = xSum / kernelValueCounter;
+		output[3 * index + 1] = ySum / kernelValueCounter;
+		output[3 * index + 2] = zSum / kernelValueCounter;
 	}
 
 	/**
@@ -1279,36 +1771,34 @@ public class Scan extends KinectPoints {
 		ArrayList<Float> closePointsDistanceSq = new ArrayList<Float>();
 		float maxDistanceSq = PApplet.sq(searchRadius);
 		float maxZValue = -Float.MAX_VALUE;
-
-		for (int row = 0; row < height; row++) {
-			for (int col = 0; col < width; col++) {
-				int index = col + row * width;
-
-				if (visibilityMask[index]) {
-					// Get the point distance to the given screen position
-					PVector point = points[index];
-					float distanceSq = PApplet.sq(xScreen - p.screenX(point.x, point.y, point.z))
-							+ PApplet.sq(yScreen - p.screenY(point.x, point.y, point.z));
-
-					// Select only those points that are close enough
-					if (distanceSq < maxDistanceSq) {
-						// Get the point z value on the current 3D view
-						float zValue = p.modelZ(point.x, point.y, point.z);
-
-						// Save the highest z value
-						if (zValue > maxZValue) {
-							maxZValue = zValue;
-						}
-
-						// Save the point information
-						closePointsIndex.add(index);
-						closePointsZValue.add(zValue);
-						closePointsDistanceSq.add(distanceSq);
-					}
+		pushModelMatrix();
+
+		for (int index = visibilityMask.nextSetBit(0); index >= 0; index = visibilityMask.nextSetBit(index + 1)) {
+			// Get the point distance to the given screen position
+			float x = points[3 * index];
+			float y = points[3 * index + 1];
+			float z = points[3 * index + 2];
+			float distanceSq = PApplet.sq(xScreen - p.screenX(x, y, z)) + PApplet.sq(yScreen - p.screenY(x, y, z));
+
+			// Select only those points that are close enough
+			if (distanceSq < maxDistanceSq) {
+				// Get the point z value on the current 3D view
+				float zValue = p.modelZ(x, y, z);
+
+				// Save the highest z value
+				if (zValue > maxZValue) {
+					maxZValue = zValue;
 				}
+
+				// Save the point information
+				closePointsIndex.add(index);
+				closePointsZValue.add(zValue);
+				closePointsDistanceSq.add(distanceSq);
 			}
 		}
 
+		popModelMatrix();
+
 		// Get the point that is closest to the screen position and the highest z value
 		int closestPointIndex = -1;
 		float minDistanceSq = maxDistanceSq;
@@ -1338,7 +1828,7 @@ public class Scan extends KinectPoints {
 		// Get the index of the point that is closest to the screen position
 		int index = getPointIndexUnderScreenPosition(xScreen, yScreen, searchRadius);
 
-		return index < 0 ? null : points[index].copy();
+		return index < 0 ? null : getPoint(index);
 	}
 
 	/**
@@ -1362,6 +1852,163 @@ public class Scan extends KinectPoints {
 		}
 	}
 
+	/**
+	 * Returns a copy of the coordinates of the point with the given index, after applying the scan model
+	 * transformation
+	 * 
+	 * @param index the point index
+	 * @return a copy of the transformed point coordinates
+	 */
+	public PVector getPoint(int index) {
+		PVector point = super.getPoint(index);
+
+		return modelMatrix == null ? point : modelMatrix.mult(point, null);
+	}
+
+	/**
+	 * Calculates the corner limits that contain all the visible points, after applying the scan model transformation.
+	 * The points are transformed on the fly, without modifying the scan
+	 * 
+	 * @return a points array with the lower and upper corner limits. Returns null if there are no visible points
+	 */
+	public PVector[] calculateLimits() {
+		if (modelMatrix == null) {
+			return super.calculateLimits();
+		}
+
+		// Get the transformation matrix elements
+		float m00 = modelMatrix.m00;
+		float m01 = modelMatrix.m01;
+		float m02 = modelMatrix.m02;
+		float m03 = modelMatrix.m03;
+		float m10 = modelMatrix.m10;
+		float m11 = modelMatrix.m11;
+		float m12 = modelMatrix.m12;
+		float m13 = modelMatrix.m13;
+		float m20 = modelMatrix.m20;
+		float m21 = modelMatrix.m21;
+		float m22 = modelMatrix.m22;
+		float m23 = modelMatrix.m23;
+
+		// Find the limits of the transformed visible points
+		float xMin = Float.MAX_VALUE;
+		float yMin = Float.MAX_VALUE;
+		float zMin = Float.MAX_VALUE;
+		float xMax = -Float.MAX_VALUE;
+		float yMax = -Float.MAX_VALUE;
+		float zMax = -Float.MAX_VALUE;
+
+		for (int index = visibilityMask.nextSetBit(0); index >= 0; index = visibilityMask.nextSetBit(index + 1)) {
+			float x = points[3 * index];
+			float y = points[3 * index + 1];
+			float z = points[3 * index + 2];
+			float xNew = m00 * x + m01 * y + m02 * z + m03;
+			float yNew = m10 * x + m11 * y + m12 * z + m13;
+			float zNew = m20 * x + m21 * y + m22 * z + m23;
+			xMin = Math.min(xMin, xNew);
+			yMin = Math.min(yMin, yNew);
+			zMin = Math.min(zMin, zNew);
+			xMax = Math.max(xMax, xNew);
+			yMax = Math.max(yMax, yNew);
+			zMax = Math.max(zMax, zNew);
+		}
+
+		if ((xMax - xMin) >= 0) {
+			return new PVector[] { new PVector(xMin, yMin, zMin), new PVector(xMax, yMax, zMax) };
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Draws the scan points as pixels on the screen
+	 * 
+	 * @param pixelSize the pixel size
+	 */
+	public void drawAsPixels(int pixelSize) {
+		pushModelMatrix();
+		super.drawAsPixels(pixelSize);
+		popModelMatrix();
+	}
+
+	/**
+	 * Draws the scan points as pixels on the screen with a uniform color
+	 * 
+	 * @param pixelSize the pixel size
+	 * @param pixelColor the pixel color
+	 */
+	public void drawAsPixels(int pixelSize, int pixelColor) {
+		pushModelMatrix();
+		super.drawAsPixels(pixelSize, pixelColor);
+		popModelMatrix();
+	}
+
+	/**
+	 * Draws the scan points as horizontal bands on the screen
+	 * 
+	 * @param verticalGap the positive vertical gap between bands
+	 */
+	public void drawAsBands(int verticalGap) {
+		pushModelMatrix();
+		super.drawAsBands(verticalGap);
+		popModelMatrix();
+	}
+
+	/**
+	 * Draws the scan points as horizontal bands on the screen with a uniform color
+	 * 
+	 * @param verticalGap the positive vertical gap between bands
+	 * @param bandsColor the bands color
+	 */
+	public void drawAsBands(int verticalGap, int bandsColor) {
+		pushModelMatrix();
+		super.drawAsBands(verticalGap, bandsColor);
+		popModelMatrix();
+	}
+
+	/**
+	 * Draws the scan points as lines on the screen
+	 * 
+	 * @param lineWeight the line weight
+	 */
+	public void drawAsLines(float lineWeight) {
+		pushModelMatrix();
+		super.drawAsLines(lineWeight);
+		popModelMatrix();
+	}
+
+	/**
+	 * Draws the scan points as lines on the screen with a uniform color
+	 * 
+	 * @param lineWeight the line weight
+	 * @param lineColor the line color
+	 */
+	public void drawAsLines(float lineWeight, int lineColor) {
+		pushModelMatrix();
+		super.drawAsLines(lineWeight, lineColor);
+		popModelMatrix();
+	}
+
+	/**
+	 * Draws the scan points as triangles on the screen
+	 */
+	public void drawAsTriangles() {
+		pushModelMatrix();
+		super.drawAsTriangles();
+		popModelMatrix();
+	}
+
+	/**
+	 * Draws the scan points as triangles on the screen with a uniform color
+	 * 
+	 * @param trianglesColor the triangles color
+	 */
+	public void drawAsTriangles(int trianglesColor) {
+		pushModelMatrix();
+		super.drawAsTriangles(trianglesColor);
+		popModelMatrix();
+	}
+
 	/**
 	 * Sets the scan center
 	 * 
@@ -1377,14 +2024,23 @@ public class Scan extends KinectPoints {
 	 * @param backColor the color to use for the mesh back side
 	 */
 	public void drawMesh(int backColor) {
+		// Calculate the mesh if it's needed for the first time
+		if (mesh == null && meshDefined) {
+			buildMesh();
+		}
+
 		if (mesh != null) {
-			// Update the default mesh shader
+			// Get the default mesh shader, which is shared by all the scans, and update its uniforms
+			PShader meshShader = ShaderHelper.getShader(p, MESH_FRAG_SHADER, MESH_VERT_SHADER);
+			meshShader.set("illuminateFrontFace", illuminateFrontFace);
 			meshShader.set("backColor", p.red(backColor) / 255f, p.green(backColor) / 255f, p.blue(backColor) / 255f,
 					p.alpha(backColor) / 255f);
 
 			// Draw the scan mesh with the default mesh shader
 			p.shader(meshShader);
+			pushModelMatrix();
 			p.shape(mesh);
+			popModelMatrix();
 			p.resetShader();
 		}
 	}
@@ -1402,19 +2058,51 @@ public class Scan extends KinectPoints {
 	 * @param shader the shader that should be used to draw the scan mesh
 	 */
 	public void drawMesh(PShader shader) {
+		// Calculate the mesh if it's needed for the first time
+		if (mesh == null && meshDefined) {
+			buildMesh();
+		}
+
 		if (mesh != null) {
 			p.shader(shader);
+			pushModelMatrix();
 			p.shape(mesh);
+			popModelMatrix();
 			p.resetShader();
 		}
 	}
 
+	/**
+	 * Draws the scan mesh on the screen using the Processing shaders. If the mesh was defined without normals, the
+	 * result is the same as with drawAsTriangles, but the triangles are only calculated again when the scan points or
+	 * the mesh properties change
+	 */
+	public void drawMeshAsTriangles() {
+		// Calculate the mesh if it's needed for the first time
+		if (mesh == null && meshDefined) {
+			buildMesh();
+		}
+
+		if (mesh != null) {
+			pushModelMatrix();
+			p.shape(mesh);
+			popModelMatrix();
+		}
+	}
+
 	/**
 	 * Draws the scan points mesh on the screen
 	 */
 	public void drawPointsMesh() {
+		// Calculate the mesh if it's needed for the first time
+		if (pointsMesh == null && pointsMeshDefined) {
+			buildPointsMesh();
+		}
+
 		if (pointsMesh != null) {
+			pushModelMatrix();
 			p.shape(pointsMesh);
+			popModelMatrix();
 		}
 	}
 
@@ -1424,9 +2112,16 @@ public class Scan extends KinectPoints {
 	 * @param shader the shader that should be used to draw the scan mesh
 	 */
 	public void drawPointsMesh(PShader shader) {
+		// Calculate the mesh if it's needed for the first time
+		if (pointsMesh == null && pointsMeshDefined) {
+			buildPointsMesh();
+		}
+
 		if (pointsMesh != null) {
 			p.shader(shader, PApplet.POINTS);
+			pushModelMatrix();
 			p.shape(pointsMesh);
+			popModelMatrix();
 			p.resetShader();
 		}
 	}
@@ -1435,8 +2130,15 @@ public class Scan extends KinectPoints {
 	 * Draws the scan lines mesh on the screen
 	 */
 	public void drawLinesMesh() {
+		// Calculate the mesh if it's needed for the first time
+		if (linesMesh == null && linesMeshDefined) {
+			buildLinesMesh();
+		}
+
 		if (linesMesh != null) {
+			pushModelMatrix();
 			p.shape(linesMesh);
+			popModelMatrix();
 		}
 	}
 
@@ -1446,10 +2148,96 @@ public class Scan extends KinectPoints {
 	 * @param shader the shader that should be used to draw the scan mesh
 	 */
 	public void drawLinesMesh(PShader shader) {
+		// Calculate the mesh if it's needed for the first time
+		if (linesMesh == null && linesMeshDefined) {
+			buildLinesMesh();
+		}
+
 		if (linesMesh != null) {
 			p.shader(shader, PApplet.LINES);
+			pushModelMatrix();
 			p.shape(linesMesh);
+			popModelMatrix();
 			p.resetShader();
 		}
 	}
+
+	/**
+	 * Draws the scan indexed mesh on the screen
+	 * 
+	 * @param backColor the color to use for the mesh back side
+	 */
+	public void drawIndexedMesh(int backColor) {
+		if (updateIndexedMesh()) {
+			// Get the default mesh shader, which is shared by all the scans, and update its uniforms
+			PShader meshShader = ShaderHelper.getShader(p, MESH_FRAG_SHADER, MESH_VERT_SHADER);
+			meshShader.set("illuminateFrontFace", indexedMeshUseColors ? 0 : 1);
+			meshShader.set("backColor", p.red(backColor) / 255f, p.green(backColor) / 255f, p.blue(backColor) / 255f,
+					p.alpha(backColor) / 255f);
+
+			// Draw the indexed mesh with the default mesh shader
+			pushModelMatrix();
+			indexedMesh.draw(meshShader);
+			popModelMatrix();
+		}
+	}
+
+	/**
+	 * Draws the scan indexed mesh on the screen
+	 */
+	public void drawIndexedMesh() {
+		drawIndexedMesh(0xffffffff);
+	}
+
+	/**
+	 * Draws the scan indexed mesh on the screen using a custom shader
+	 * 
+	 * @param shader the shader that should be used to draw the indexed mesh
+	 */
+	public void drawIndexedMesh(PShader shader) {
+		if (updateIndexedMesh()) {
+			pushModelMatrix();
+			indexedMesh.draw(shader);
+			popModelMatrix();
+		}
+	}
+
+	/**
+	 * Draws the scan indexed mesh wireframe on the screen using a custom shader. The wireframe lines share the indexed
+	 * mesh vertices
+	 * 
+	 * @param shader the shader that should be used to draw the wireframe
+	 */
+	public void drawIndexedMeshWireframe(PShader shader) {
+		if (updateIndexedMesh()) {
+			pushModelMatrix();
+			indexedMesh.drawWireframe(shader);
+			popModelMatrix();
+		}
+	}
+
+	/**
+	 * Deletes the GPU buffers used by the indexed mesh. They will be created again if the mesh is drawn
+	 */
+	public void disposeIndexedMesh() {
+		if (indexedMesh != null) {
+			indexedMesh.dispose();
+		}
+	}
+
+	/**
+	 * Releases the scan meshes, their buffers and the indexed mesh GPU buffers, keeping their definitions. They will be
+	 * calculated again the next time they are drawn
+	 */
+	public void releaseMeshes() {
+		mesh = null;
+		pointsMesh = null;
+		linesMesh = null;
+		meshBuffer = null;
+		pointsMeshBuffer = null;
+		linesMeshBuffer = null;
+		disposeIndexedMesh();
+		indexedMesh = null;
+		indexedMeshGeneration = -1;
+	}
 }
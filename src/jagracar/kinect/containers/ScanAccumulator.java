@@ -0,0 +1,246 @@
+package jagracar.kinect.containers;
+
+import java.util.Arrays;
+
+import jagracar.kinect.util.ScanBox;
+import processing.core.PApplet;
+import processing.core.PVector;
+
+/**
+ * Class used to average several Kinect frames into a single scan. Each frame is folded into running per-point means
+ * and variances (Welford's method), so the memory used doesn't depend on the number of averaged frames
+ * 
+ * @author Javier Graciá Carpio (jagracar)
+ */
+public class ScanAccumulator {
+
+	/**
+	 * The parent Processing applet
+	 */
+	protected PApplet p;
+
+	/**
+	 * The arrays horizontal dimension
+	 */
+	protected int width;
+
+	/**
+	 * The arrays vertical dimension
+	 */
+	protected int height;
+
+	/**
+	 * Total number of points in the arrays
+	 */
+	protected int nPoints;
+
+	/**
+	 * The number of accumulated frames
+	 */
+	protected int nFrames;
+
+	/**
+	 * Array containing the points mean coordinates, stored consecutively as x, y, z triplets
+	 */
+	protected float[] means;
+
+	/**
+	 * Array containing the sum of the squared differences from the mean, added over the three coordinates
+	 */
+	protected float[] squaredDiffs;
+
+	/**
+	 * Array containing the sum of the points colors, stored consecutively as red, green, blue triplets
+	 */
+	protected int[] colorSums;
+
+	/**
+	 * Array containing the number of frames where each point was visible
+	 */
+	protected int[] counters;
+
+	/**
+	 * The sum of the frame centers
+	 */
+	protected PVector centerSum;
+
+	/**
+	 * Constructs an empty scan accumulator. The arrays dimensions will be set by the first accumulated frame
+	 * 
+	 * @param p the parent Processing applet
+	 */
+	public ScanAccumulator(PApplet p) {
+		this.p = p;
+		this.centerSum = new PVector();
+		setDimensions(0, 0);
+	}
+
+	/**
+	 * Sets the accumulator dimensions, removing all the accumulated frames
+	 * 
+	 * @param newWidth the new arrays horizontal dimension
+	 * @param newHeight the new arrays vertical dimension
+	 */
+	protected void setDimensions(int newWidth, int newHeight) {
+		width = newWidth;
+		height = newHeight;
+		nPoints = width * height;
+		means = new float[3 * nPoints];
+		squaredDiffs = new float[nPoints];
+		colorSums = new int[3 * nPoints];
+		counters = new int[nPoints];
+		clear();
+	}
+
+	/**
+	 * Removes all the accumulated frames
+	 */
+	public void clear() {
+		nFrames = 0;
+		centerSum.set(0, 0, 0);
+
+		if (nPoints > 0) {
+			Arrays.fill(means, 0);
+			Arrays.fill(squaredDiffs, 0);
+			Arrays.fill(colorSums, 0);
+			Arrays.fill(counters, 0);
+		}
+	}
+
+	/**
+	 * Returns the number of accumulated frames
+	 * 
+	 * @return the number of accumulated frames
+	 */
+	public int getNumFrames() {
+		return nFrames;
+	}
+
+	/**
+	 * Adds the Kinect points inside a scan box to the accumulator. The accumulator is cleared first if the Kinect
+	 * points have different dimensions than the previous frames
+	 * 
+	 * @param kp the KinectPoints object
+	 * @param box the scan box from which the points will be selected
+	 */
+	public void add(KinectPoints kp, ScanBox box) {
+		add(kp, box, box.center);
+	}
+
+	/**
+	 * Adds a scan to the accumulator, including its model transformation. The accumulator is cleared first if the scan
+	 * has different dimensions than the previous frames
+	 * 
+	 * @param scan the scan to add
+	 */
+	public void add(Scan scan) {
+		add(scan.getBakedScan(), null, scan.center);
+	}
+
+	/**
+	 * Adds the visible points from a KinectPoints object to the accumulator
+	 * 
+	 * @param kp the KinectPoints object
+	 * @param box the scan box from which the points will be selected. It can be null if all the visible points should
+	 *        be used
+	 * @param center the frame center
+	 */
+	protected void add(KinectPoints kp, ScanBox box, PVector center) {
+		if (kp.width != width || kp.height != height) {
+			setDimensions(kp.width, kp.height);
+		}
+
+		nFrames++;
+		centerSum.add(center);
+
+		float[] points = kp.points;
+		int[] colors = kp.colors;
+		VisibilityMask mask = kp.visibilityMask;
+
+		for (int index = mask.nextSetBit(0); index >= 0; index = mask.nextSetBit(index + 1)) {
+			float x = points[3 * index];
+			float y = points[3 * index + 1];
+			float z = points[3 * index + 2];
+
+			if (box == null || box.isInside(x, y, z)) {
+				// Update the running mean and squared differences
+				int counter = ++counters[index];
+				float deltaX = x - means[3 * index];
+				float deltaY = y - means[3 * index + 1];
+				float deltaZ = z - means[3 * index + 2];
+				means[3 * index] += deltaX / counter;
+				means[3 * index + 1] += deltaY / counter;
+				means[3 * index + 2] += deltaZ / counter;
+				squaredDiffs[index] += deltaX * (x - means[3 * index]) + deltaY * (y - means[3 * index + 1])
+						+ deltaZ * (z - means[3 * index + 2]);
+
+				// Add the color components
+				int color = colors[index];
+				colorSums[3 * index] += (color >> 16) & 0xff;
+				colorSums[3 * index + 1] += (color >> 8) & 0xff;
+				colorSums[3 * index + 2] += color & 0xff;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of frames where a given point was visible
+	 * 
+	 * @param index the point index
+	 * @return the number of frames where the point was visible
+	 */
+	public int getCounter(int index) {
+		return counters[index];
+	}
+
+	/**
+	 * Returns the variance of a given point position, added over the three coordinates
+	 * 
+	 * @param index the point index
+	 * @return the point position variance. It will be zero if the point was visible in less than two frames
+	 */
+	public float getVariance(int index) {
+		return counters[index] > 1 ? squaredDiffs[index] / counters[index] : 0;
+	}
+
+	/**
+	 * Creates the average scan from the accumulated frames
+	 * 
+	 * @return the average scan. The points are visible if they were visible in at least one frame
+	 */
+	public Scan getScan() {
+		return getScan(Float.MAX_VALUE);
+	}
+
+	/**
+	 * Creates the average scan from the accumulated frames, masking the points with a large position variance
+	 * 
+	 * @param maxVariance the maximum allowed point position variance, added over the three coordinates
+	 * @return the average scan. The points are visible if they were visible in at least one frame and their position
+	 *         variance is not larger than the given value
+	 */
+	public Scan getScan(float maxVariance) {
+		Scan averageScan = new Scan(p, width, height);
+
+		if (nFrames > 0) {
+			averageScan.center.set(centerSum).div(nFrames);
+		}
+
+		for (int index = 0; index < nPoints; index++) {
+			int counter = counters[index];
+
+			if (counter > 0 && getVariance(index) <= maxVariance) {
+				averageScan.points[3 * index] = means[3 * index];
+				averageScan.points[3 * index + 1] = means[3 * index + 1];
+				averageScan.points[3 * index + 2] = means[3 * index + 2];
+				int red = colorSums[3 * index] / counter;
+				int green = colorSums[3 * index + 1] / counter;
+				int blue = colorSums[3 * index + 2] / counter;
+				averageScan.colors[index] = (red << 16) | (green << 8) | blue | 0xff000000;
+				averageScan.visibilityMask.set(index);
+			}
+		}
+
+		return averageScan;
+	}
+}
@@ -0,0 +1,917 @@
+package jagracar.kinect.containers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import jagracar.kinect.util.ParallelHelper;
+import processing.core.PApplet;
+
+/**
+ * Helper class containing the methods to read and write scans in the binary and text points formats.
+ * 
+ * The text format has the scan dimensions in the first line, followed by one line per scan point with its x, y, z
+ * coordinates and its red, green, blue color components separated by spaces. Masked points have a negative red value.
+ * 
+ * The binary format starts with a 32 bytes header containing the format magic number, the format version, the scan
+ * dimensions, the scan center and some flags. The header is followed by the packed sections with the points xyz
+ * coordinates, the points RGB colors, the visibility mask words and, if the normals flag is set, the points normals.
+ * All the values are stored in little-endian byte order
+ * 
+ * @author Javier Graciá Carpio (jagracar)
+ */
+public class ScanFileHelper {
+
+	/**
+	 * The binary format magic number (the "KSCN" characters)
+	 */
+	public static final int MAGIC_NUMBER = 0x4e43534b;
+
+	/**
+	 * The binary format version
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The binary format header size in bytes
+	 */
+	public static final int HEADER_SIZE = 32;
+
+	/**
+	 * The header flag indicating that the file contains the points normals
+	 */
+	public static final int NORMALS_FLAG = 1;
+
+	/**
+	 * The minimum number of bytes in a text file chunk that is worth to parse on a separate processor core
+	 */
+	public static final int MIN_CHUNK_SIZE = 1 << 18;
+
+	/**
+	 * The line used in the text format for the masked points
+	 */
+	public static final String MASKED_POINT_LINE = "-99 -99 -99 -99 -99 -99";
+
+	/**
+	 * The size of the buffer used to write the text files
+	 */
+	protected static final int TEXT_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Powers of ten that can be represented exactly as doubles
+	 */
+	protected static final double[] POWERS_OF_TEN = new double[] { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+			1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/**
+	 * Simple tokenizer that reads numbers directly from the bytes of a text file, without creating intermediate
+	 * strings
+	 */
+	protected static class TextTokenizer {
+
+		/**
+		 * The buffer containing the file bytes
+		 */
+		protected final ByteBuffer buffer;
+
+		/**
+		 * The current position in the buffer
+		 */
+		protected int position;
+
+		/**
+		 * The position where the tokenizer should stop
+		 */
+		protected final int end;
+
+		/**
+		 * Constructs a new tokenizer for a range of the buffer bytes
+		 * 
+		 * @param buffer the buffer containing the file bytes
+		 * @param start the start position
+		 * @param end the end position
+		 */
+		public TextTokenizer(ByteBuffer buffer, int start, int end) {
+			this.buffer = buffer;
+			this.position = start;
+			this.end = end;
+		}
+
+		/**
+		 * Checks if there are more lines to read
+		 * 
+		 * @return true if there are more lines to read
+		 */
+		public boolean hasMoreLines() {
+			return position < end;
+		}
+
+		/**
+		 * Moves the tokenizer to the beginning of the next line
+		 */
+		public void nextLine() {
+			while (position < end && buffer.get(position++) != '\n') {
+			}
+		}
+
+		/**
+		 * Skips the spaces before the next token in the current line
+		 * 
+		 * @return true if there is a token in the current line
+		 */
+		protected boolean skipSpaces() {
+			while (position < end) {
+				byte b = buffer.get(position);
+
+				if (b == '\n') {
+					return false;
+				} else if (b != ' ' && b != '\t' && b != '\r') {
+					return true;
+				}
+
+				position++;
+			}
+
+			return false;
+		}
+
+		/**
+		 * Checks if a given byte separates two tokens
+		 * 
+		 * @param b the byte to check
+		 * @return true if the byte is a token separator
+		 */
+		protected static boolean isSeparator(byte b) {
+			return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+		}
+
+		/**
+		 * Reads the next integer in the current line
+		 * 
+		 * @return the integer value. Returns 0 if the line has no more tokens
+		 */
+		public int nextInt() {
+			return (int) nextFloat();
+		}
+
+		/**
+		 * Reads the next float in the current line. Numbers with up to 18 significant digits and 12 decimals are
+		 * converted with a single exactly rounded double operation, and the double is then rounded to a float. The
+		 * second rounding can only differ from Float.parseFloat when the double lies exactly halfway between two
+		 * floats, so those numbers, together with the rest of the numbers, are passed to Float.parseFloat
+		 * 
+		 * @return the float value. Returns 0 if the line has no more tokens
+		 */
+		public float nextFloat() {
+			if (!skipSpaces()) {
+				return 0;
+			}
+
+			// Read the sign
+			int tokenStart = position;
+			byte b = buffer.get(position);
+			boolean negative = b == '-';
+
+			if (b == '-' || b == '+') {
+				position++;
+			}
+
+			// Read the integer and the decimal digits
+			long mantissa = 0;
+			int exponent = 0;
+			int significantDigits = 0;
+			boolean hasDigits = false;
+			boolean exact = true;
+			boolean decimals = false;
+
+			while (position < end) {
+				b = buffer.get(position);
+
+				if (b >= '0' && b <= '9') {
+					hasDigits = true;
+
+					if (significantDigits < 18) {
+						mantissa = 10 * mantissa + (b - '0');
+
+						if (mantissa != 0) {
+							significantDigits++;
+						}
+
+						if (decimals) {
+							exponent--;
+						}
+					} else {
+						exact = false;
+					}
+				} else if (b == '.' && !decimals) {
+					decimals = true;
+				} else {
+					break;
+				}
+
+				position++;
+			}
+
+			// Read the exponent
+			if (hasDigits && position < end && (b == 'e' || b == 'E')) {
+				position++;
+				boolean negativeExponent = false;
+
+				if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+					negativeExponent = buffer.get(position) == '-';
+					position++;
+				}
+
+				int exponentValue = 0;
+
+				while (position < end && (b = buffer.get(position)) >= '0' && b <= '9') {
+					exponentValue = Math.min(10 * exponentValue + (b - '0'), 1000);
+					position++;
+				}
+
+				exponent += negativeExponent ? -exponentValue : exponentValue;
+			}
+
+			// Check that we reached the end of the token
+			if (position < end && !isSeparator(buffer.get(position))) {
+				exact = false;
+
+				while (position < end && !isSeparator(buffer.get(position))) {
+					position++;
+				}
+			}
+
+			// Calculate the float value
+			if (hasDigits && exact) {
+				if (mantissa == 0) {
+					return negative ? -0.0f : 0.0f;
+				} else if (mantissa < (1L << 53)) {
+					double value = -1;
+
+					if (exponent < 0 && exponent >= -12) {
+						value = mantissa / POWERS_OF_TEN[-exponent];
+					} else if (exponent >= 0 && exponent <= 15 && mantissa < (1L << 53) / POWERS_OF_TEN[exponent]) {
+						value = mantissa * POWERS_OF_TEN[exponent];
+					}
+
+					if (value >= Float.MIN_NORMAL && !isFloatMidpoint(value)) {
+						return (float) (negative ? -value : value);
+					}
+				}
+			}
+
+			// Use the slow method for the less common cases
+			byte[] tokenBytes = new byte[position - tokenStart];
+
+			for (int i = 0; i < tokenBytes.length; i++) {
+				tokenBytes[i] = buffer.get(tokenStart + i);
+			}
+
+			return Float.parseFloat(new String(tokenBytes, StandardCharsets.US_ASCII));
+		}
+	}
+
+	/**
+	 * Checks if a positive double lies exactly halfway between two consecutive normal floats, where rounding it to a
+	 * float could give a different result than rounding the exact decimal number
+	 * 
+	 * @param value the double value
+	 * @return true if the value is a float rounding midpoint
+	 */
+	protected static boolean isFloatMidpoint(double value) {
+		// The double fraction has 29 bits more than the float fraction
+		return (Double.doubleToRawLongBits(value) & ((1L << 29) - 1)) == (1L << 28);
+	}
+
+	/**
+	 * Simple byte buffer that formats numbers directly into bytes and writes them to an output stream when it's full
+	 */
+	protected static class TextBuffer {
+
+		/**
+		 * The output stream where the bytes will be written
+		 */
+		protected final OutputStream output;
+
+		/**
+		 * The buffer bytes
+		 */
+		protected final byte[] bytes;
+
+		/**
+		 * The number of bytes in the buffer
+		 */
+		protected int count;
+
+		/**
+		 * Temporal array used to store the digits of a number in reverse order
+		 */
+		protected final byte[] digits;
+
+		/**
+		 * Constructs a new text buffer
+		 * 
+		 * @param output the output stream where the bytes will be written
+		 * @param size the buffer size
+		 */
+		public TextBuffer(OutputStream output, int size) {
+			this.output = output;
+			this.bytes = new byte[size];
+			this.count = 0;
+			this.digits = new byte[20];
+		}
+
+		/**
+		 * Makes sure that the buffer has space for a given number of bytes, writing its contents if necessary
+		 * 
+		 * @param length the number of bytes that should fit in the buffer
+		 * @throws IOException if the bytes could not be written
+		 */
+		protected void ensureSpace(int length) throws IOException {
+			if (count + length > bytes.length) {
+				flush();
+			}
+		}
+
+		/**
+		 * Writes the buffer contents to the output stream
+		 * 
+		 * @throws IOException if the bytes could not be written
+		 */
+		public void flush() throws IOException {
+			output.write(bytes, 0, count);
+			count = 0;
+		}
+
+		/**
+		 * Adds a range of bytes to the buffer
+		 * 
+		 * @param source the array containing the bytes
+		 * @param offset the first byte position
+		 * @param length the number of bytes to add
+		 * @throws IOException if the bytes could not be written
+		 */
+		public void write(byte[] source, int offset, int length) throws IOException {
+			if (length > bytes.length) {
+				flush();
+				output.write(source, offset, length);
+			} else {
+				ensureSpace(length);
+				System.arraycopy(source, offset, bytes, count, length);
+				count += length;
+			}
+		}
+
+		/**
+		 * Adds a byte to the buffer
+		 * 
+		 * @param b the byte to add
+		 * @throws IOException if the bytes could not be written
+		 */
+		public void write(byte b) throws IOException {
+			ensureSpace(1);
+			bytes[count++] = b;
+		}
+
+		/**
+		 * Adds the decimal representation of a long number to the buffer
+		 * 
+		 * @param value the number to add
+		 * @throws IOException if the bytes could not be written
+		 */
+		public void write(long value) throws IOException {
+			if (value == Long.MIN_VALUE) {
+				writeAscii(Long.toString(value));
+				return;
+			}
+
+			ensureSpace(20);
+
+			if (value < 0) {
+				bytes[count++] = '-';
+				value = -value;
+			}
+
+			writeDigits(value, 1);
+		}
+
+		/**
+		 * Adds the digits of a positive number to the buffer. The buffer should have enough space for them
+		 * 
+		 * @param value the positive number
+		 * @param minDigits the minimum number of digits to write, padding with zeros if necessary
+		 */
+		protected void writeDigits(long value, int minDigits) {
+			int nDigits = 0;
+
+			do {
+				digits[nDigits++] = (byte) ('0' + value % 10);
+				value /= 10;
+			} while (value > 0);
+
+			while (nDigits < minDigits) {
+				digits[nDigits++] = '0';
+			}
+
+			while (nDigits > 0) {
+				bytes[count++] = digits[--nDigits];
+			}
+		}
+
+		/**
+		 * Adds the shortest decimal representation of a float number that reads back as the same float. The numbers
+		 * between 10^-3 and 10^7 are formatted directly with the shortest number of decimals, choosing the closest
+		 * decimal if there is more than one. The rest of the numbers are formatted with Float.toString. The output can
+		 * have fewer digits than Float.toString before Java 19, which doesn't always return the shortest decimal
+		 * 
+		 * @param value the number to add
+		 * @throws IOException if the bytes could not be written
+		 */
+		public void write(float value) throws IOException {
+			float absValue = Math.abs(value);
+
+			if (absValue >= 1e-3f && absValue < 1e7f) {
+				for (int nDecimals = 0; nDecimals <= 12; nDecimals++) {
+					// The product is exact, because 5^12 has less than 29 significant bits
+					double scale = POWERS_OF_TEN[nDecimals];
+					double decimal = Math.rint(absValue * scale);
+
+					if ((float) (decimal / scale) == absValue) {
+						long mantissa = (long) decimal;
+						long integerPart = mantissa / (long) scale;
+						ensureSpace(32);
+
+						if (value < 0) {
+							bytes[count++] = '-';
+						}
+
+						writeDigits(integerPart, 1);
+						bytes[count++] = '.';
+						writeDigits(mantissa - integerPart * (long) scale, Math.max(nDecimals, 1));
+						return;
+					}
+				}
+			}
+
+			writeAscii(Float.toString(value));
+		}
+
+		/**
+		 * Adds the characters of an ASCII string to the buffer
+		 * 
+		 * @param str the string to add
+		 * @throws IOException if the bytes could not be written
+		 */
+		public void writeAscii(String str) throws IOException {
+			ensureSpace(str.length());
+
+			for (int i = 0; i < str.length(); i++) {
+				bytes[count++] = (byte) str.charAt(i);
+			}
+		}
+	}
+
+	/**
+	 * This class has no public constructor, only static methods
+	 */
+	private ScanFileHelper() {
+
+	}
+
+	/**
+	 * Returns the file associated to a given file name. Relative file names are first searched in the sketch folder
+	 * and then in the sketch data folder
+	 * 
+	 * @param p the parent Processing applet
+	 * @param fileName the file name
+	 * @return the file associated to the file name
+	 */
+	public static File getInputFile(PApplet p, String fileName) {
+		File file = new File(fileName);
+
+		if (!file.isAbsolute()) {
+			file = p.sketchFile(fileName);
+
+			if (!file.exists()) {
+				file = p.dataFile(fileName);
+			}
+		}
+
+		return file;
+	}
+
+	/**
+	 * Checks if a given file is written in the binary points format
+	 * 
+	 * @param file the file to check
+	 * @return true if the file starts with the binary format magic number
+	 */
+	public static boolean isBinaryFile(File file) {
+		if (file.length() < HEADER_SIZE) {
+			return false;
+		}
+
+		try (FileInputStream input = new FileInputStream(file)) {
+			byte[] bytes = new byte[4];
+
+			if (input.read(bytes) != bytes.length) {
+				return false;
+			}
+
+			return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt() == MAGIC_NUMBER;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Updates a scan with the data from a binary points file. The file is memory mapped and its sections are copied in
+	 * bulk into the scan arrays
+	 * 
+	 * @param scan the scan to update
+	 * @param file the binary points file
+	 * @return true if the scan could be read from the file
+	 */
+	public static boolean loadBinary(Scan scan, File file) {
+		try (FileInputStream input = new FileInputStream(file)) {
+			// Map the complete file in memory
+			FileChannel channel = input.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			// Read the header
+			int magicNumber = buffer.getInt();
+			int version = buffer.getInt();
+
+			if (magicNumber != MAGIC_NUMBER || version > VERSION) {
+				System.out.println("ScanFileHelper class: " + file + " is not a valid binary points file");
+				return false;
+			}
+
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			float xCenter = buffer.getFloat();
+			float yCenter = buffer.getFloat();
+			float zCenter = buffer.getFloat();
+			int flags = buffer.getInt();
+			boolean hasNormals = (flags & NORMALS_FLAG) != 0;
+
+			// Check that the file has the expected size
+			int nPoints = width * height;
+			long expectedSize = getFileSize(nPoints, hasNormals);
+
+			if (width < 0 || height < 0 || channel.size() < expectedSize) {
+				System.out.println("ScanFileHelper class: the binary points file " + file + " is truncated");
+				return false;
+			}
+
+			// Fill the scan arrays
+			scan.setDimensions(width, height);
+			scan.center.set(xCenter, yCenter, zCenter);
+			buffer.position(HEADER_SIZE);
+			buffer.asFloatBuffer().get(scan.points);
+			buffer.position(buffer.position() + 4 * scan.points.length);
+			buffer.asIntBuffer().get(scan.colors);
+			buffer.position(buffer.position() + 4 * scan.colors.length);
+			buffer.asLongBuffer().get(scan.visibilityMask.words);
+			buffer.position(buffer.position() + 8 * scan.visibilityMask.words.length);
+
+			// Make sure that the mask bits outside the scan are not set
+			if ((nPoints & 63) != 0) {
+				scan.visibilityMask.words[nPoints >>> 6] &= (1L << nPoints) - 1;
+			}
+
+			// Invalidate the data derived from the old points
+			scan.invalidate();
+
+			// The saved normals are valid for the new points
+			if (hasNormals) {
+				if (scan.normals == null || scan.normals.length != 3 * nPoints) {
+					scan.normals = new float[3 * nPoints];
+				}
+
+				buffer.asFloatBuffer().get(scan.normals);
+				scan.normalsGeneration = scan.generation;
+			}
+
+			return true;
+		} catch (IOException e) {
+			System.out.println("ScanFileHelper class: there was a problem reading the scan from " + file);
+			return false;
+		}
+	}
+
+	/**
+	 * Updates a scan with the data from a text points file. The file is memory mapped and split in line aligned
+	 * chunks that are parsed in parallel, reading the numbers directly from the file bytes
+	 * 
+	 * @param scan the scan to update
+	 * @param file the text points file
+	 * @return true if the scan could be read from the file
+	 */
+	public static boolean loadText(final Scan scan, File file) {
+		try (FileInputStream input = new FileInputStream(file)) {
+			// Map the complete file in memory
+			FileChannel channel = input.getChannel();
+
+			if (channel.size() > Integer.MAX_VALUE) {
+				System.out.println("ScanFileHelper class: the text points file " + file + " is too large");
+				return false;
+			}
+
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			final int size = buffer.limit();
+
+			// The scan dimensions are in the first line
+			TextTokenizer tokenizer = new TextTokenizer(buffer, 0, size);
+			int width = tokenizer.nextInt();
+			int height = tokenizer.nextInt();
+			tokenizer.nextLine();
+			scan.setDimensions(width, height);
+
+			// Split the points lines in chunks that start at the beginning of a line
+			int dataStart = tokenizer.position;
+			int dataSize = size - dataStart;
+			int nChunks = Math.max(1, Math.min(4 * ParallelHelper.getParallelism(), dataSize / MIN_CHUNK_SIZE));
+			final int[] chunkLimits = new int[nChunks + 1];
+			chunkLimits[0] = dataStart;
+			chunkLimits[nChunks] = size;
+
+			for (int i = 1; i < nChunks; i++) {
+				int position = Math.max(chunkLimits[i - 1], dataStart + (int) ((long) dataSize * i / nChunks));
+
+				while (position < size && buffer.get(position - 1) != '\n') {
+					position++;
+				}
+
+				chunkLimits[i] = position;
+			}
+
+			// Count the number of lines in each chunk to obtain the index of their first point
+			final int[] chunkFirstIndex = new int[nChunks + 1];
+
+			ParallelHelper.run(nChunks, 1, new ParallelHelper.RangeTask() {
+				public void run(int start, int end) {
+					for (int i = start; i < end; i++) {
+						int counter = 0;
+
+						for (int position = chunkLimits[i]; position < chunkLimits[i + 1]; position++) {
+							if (buffer.get(position) == '\n') {
+								counter++;
+							}
+						}
+
+						chunkFirstIndex[i + 1] = counter;
+					}
+				}
+			});
+
+			for (int i = 1; i <= nChunks; i++) {
+				chunkFirstIndex[i] += chunkFirstIndex[i - 1];
+			}
+
+			// Parse the chunks
+			final int[] chunkLastIndex = new int[nChunks];
+
+			ParallelHelper.run(nChunks, 1, new ParallelHelper.RangeTask() {
+				public void run(int start, int end) {
+					for (int i = start; i < end; i++) {
+						chunkLastIndex[i] = parseTextChunk(scan, buffer, chunkLimits[i], chunkLimits[i + 1],
+								chunkFirstIndex[i]);
+					}
+				}
+			});
+
+			// Clean the points that were not present in the file
+			int lastIndex = chunkLastIndex[nChunks - 1];
+
+			if (lastIndex < scan.nPoints) {
+				Arrays.fill(scan.points, 3 * lastIndex, scan.points.length, 0);
+				Arrays.fill(scan.colors, lastIndex, scan.nPoints, 0);
+			}
+
+			// Fill the visibility mask and calculate the scan center
+			float[] points = scan.points;
+			int[] colors = scan.colors;
+			VisibilityMask visibilityMask = scan.visibilityMask;
+			visibilityMask.clearAll();
+			scan.center.set(0, 0, 0);
+			int counter = 0;
+
+			for (int index = 0; index < scan.nPoints; index++) {
+				if (colors[index] != 0) {
+					visibilityMask.set(index);
+					scan.center.add(points[3 * index], points[3 * index + 1], points[3 * index + 2]);
+					counter++;
+				}
+			}
+
+			if (counter > 0) {
+				scan.center.div(counter);
+			}
+
+			// Invalidate the data derived from the old points
+			scan.invalidate();
+
+			return true;
+		} catch (IOException | NumberFormatException e) {
+			System.out.println("ScanFileHelper class: there was a problem reading the scan from " + file);
+			return false;
+		}
+	}
+
+	/**
+	 * Parses a chunk of lines from a text points file. Masked points are stored with a zero color, so the visibility
+	 * mask can be filled once all the chunks are parsed
+	 * 
+	 * @param scan the scan to update
+	 * @param buffer the buffer containing the file bytes
+	 * @param start the chunk start position in the buffer
+	 * @param end the chunk end position in the buffer
+	 * @param firstIndex the index of the point in the first line of the chunk
+	 * @return the index of the point after the last point in the chunk
+	 */
+	protected static int parseTextChunk(Scan scan, ByteBuffer buffer, int start, int end, int firstIndex) {
+		float[] points = scan.points;
+		int[] colors = scan.colors;
+		int nPoints = scan.nPoints;
+		TextTokenizer tokenizer = new TextTokenizer(buffer, start, end);
+		int index = firstIndex;
+
+		while (tokenizer.hasMoreLines() && index < nPoints) {
+			float x = tokenizer.nextFloat();
+			float y = tokenizer.nextFloat();
+			float z = tokenizer.nextFloat();
+			float red = tokenizer.nextFloat();
+
+			if (red > 0) {
+				int green = Math.round(tokenizer.nextFloat());
+				int blue = Math.round(tokenizer.nextFloat());
+				points[3 * index] = x;
+				points[3 * index + 1] = y;
+				points[3 * index + 2] = z;
+				colors[index] = (Math.round(red) << 16) | (green << 8) | blue | 0xff000000;
+			} else {
+				points[3 * index] = 0;
+				points[3 * index + 1] = 0;
+				points[3 * index + 2] = 0;
+				colors[index] = 0;
+			}
+
+			tokenizer.nextLine();
+			index++;
+		}
+
+		return index;
+	}
+
+	/**
+	 * Saves a scan in the text points format. The points coordinates are written relative to the scan center. The
+	 * numbers are formatted directly into a reusable byte buffer and the runs of masked points are copied in bulk
+	 * from a block of pre-rendered masked lines
+	 * 
+	 * @param scan the scan to save
+	 * @param output the output stream where the scan should be written. It will not be closed
+	 * @throws IOException if the scan could not be written
+	 */
+	public static void saveText(Scan scan, OutputStream output) throws IOException {
+		TextBuffer buffer = new TextBuffer(output, TEXT_BUFFER_SIZE);
+		byte[] lineSeparator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+		// Create a block of masked point lines
+		byte[] maskedLine = (MASKED_POINT_LINE + System.lineSeparator()).getBytes(StandardCharsets.US_ASCII);
+		int maskedBlockLines = TEXT_BUFFER_SIZE / (4 * maskedLine.length);
+		byte[] maskedBlock = new byte[maskedBlockLines * maskedLine.length];
+
+		for (int i = 0; i < maskedBlockLines; i++) {
+			System.arraycopy(maskedLine, 0, maskedBlock, i * maskedLine.length, maskedLine.length);
+		}
+
+		// The first line contains the scan dimensions
+		buffer.write(scan.width);
+		buffer.write((byte) ' ');
+		buffer.write(scan.height);
+		buffer.write(lineSeparator, 0, lineSeparator.length);
+
+		// Write each point coordinates and color on a separate line
+		float[] points = scan.points;
+		int[] colors = scan.colors;
+		VisibilityMask visibilityMask = scan.visibilityMask;
+		float xCenter = scan.center.x;
+		float yCenter = scan.center.y;
+		float zCenter = scan.center.z;
+		int index = 0;
+
+		while (index < scan.nPoints) {
+			// Write the masked points before the next visible point
+			int nextIndex = visibilityMask.nextSetBit(index);
+
+			if (nextIndex < 0) {
+				nextIndex = scan.nPoints;
+			}
+
+			for (int nMasked = nextIndex - index; nMasked > 0; nMasked -= maskedBlockLines) {
+				buffer.write(maskedBlock, 0, Math.min(nMasked, maskedBlockLines) * maskedLine.length);
+			}
+
+			// Write the visible point
+			index = nextIndex;
+
+			if (index < scan.nPoints) {
+				int color = colors[index];
+				buffer.write(points[3 * index] - xCenter);
+				buffer.write((byte) ' ');
+				buffer.write(points[3 * index + 1] - yCenter);
+				buffer.write((byte) ' ');
+				buffer.write(points[3 * index + 2] - zCenter);
+				buffer.write((byte) ' ');
+				buffer.write((color >> 16) & 0xff);
+				buffer.write((byte) ' ');
+				buffer.write((color >> 8) & 0xff);
+				buffer.write((byte) ' ');
+				buffer.write(color & 0xff);
+				buffer.write(lineSeparator, 0, lineSeparator.length);
+				index++;
+			}
+		}
+
+		buffer.flush();
+	}
+
+	/**
+	 * Saves a scan in a binary points file
+	 * 
+	 * @param scan the scan to save
+	 * @param file the binary points file
+	 */
+	public static void saveBinary(Scan scan, File file) {
+		// Create the file parent directories if necessary
+		File parent = file.getAbsoluteFile().getParentFile();
+
+		if (parent != null) {
+			parent.mkdirs();
+		}
+
+		try (FileOutputStream output = new FileOutputStream(file)) {
+			// Fill a buffer with the file contents, making sure that the normals are up to date
+			scan.updateNormals();
+			boolean hasNormals = scan.normals != null;
+			ByteBuffer buffer = ByteBuffer.allocateDirect((int) getFileSize(scan.nPoints, hasNormals));
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC_NUMBER);
+			buffer.putInt(VERSION);
+			buffer.putInt(scan.width);
+			buffer.putInt(scan.height);
+			buffer.putFloat(scan.center.x);
+			buffer.putFloat(scan.center.y);
+			buffer.putFloat(scan.center.z);
+			buffer.putInt(hasNormals ? NORMALS_FLAG : 0);
+			buffer.asFloatBuffer().put(scan.points);
+			buffer.position(buffer.position() + 4 * scan.points.length);
+			buffer.asIntBuffer().put(scan.colors);
+			buffer.position(buffer.position() + 4 * scan.colors.length);
+			buffer.asLongBuffer().put(scan.visibilityMask.words);
+			buffer.position(buffer.position() + 8 * scan.visibilityMask.words.length);
+
+			if (hasNormals) {
+				buffer.asFloatBuffer().put(scan.normals);
+				buffer.position(buffer.position() + 4 * scan.normals.length);
+			}
+
+			// Write the buffer in the file
+			buffer.flip();
+			FileChannel channel = output.getChannel();
+
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e) {
+			System.out.println("ScanFileHelper class: there was a problem saving the scan in " + file);
+		}
+	}
+
+	/**
+	 * Returns the size in bytes of a binary points file
+	 * 
+	 * @param nPoints the number of scan points
+	 * @param hasNormals true if the file contains the points normals
+	 * @return the binary points file size in bytes
+	 */
+	protected static long getFileSize(int nPoints, boolean hasNormals) {
+		long size = HEADER_SIZE + 12L * nPoints + 4L * nPoints + 8L * ((nPoints + 63) >>> 6);
+
+		if (hasNormals) {
+			size += 12L * nPoints;
+		}
+
+		return size;
+	}
+}
@@ -0,0 +1,329 @@
+package jagracar.kinect.containers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * Class used to process scans with a sequence of stages (resolution reduction, hole filling, smoothing and normals
+ * calculation), caching the output of each stage.
+ * 
+ * The outputs are cached by the stage input scan, the stage and its parameter, so when only one parameter changes,
+ * only the stages after it need to be recalculated. The least recently used outputs are removed from the cache when
+ * their total size exceeds the memory budget. The scans returned by the pipeline are shared with the cache and should
+ * not be modified or drawn, because the cache is accessed from other threads. Use a copy of the scan instead
+ * 
+ * @author Javier Graciá Carpio (jagracar)
+ */
+public class ScanPipeline {
+
+	/**
+	 * The default cache memory budget in bytes
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+	/**
+	 * The resolution reduction stage. The parameter is the scale reduction factor
+	 */
+	public static final Stage REDUCE_RESOLUTION = new Stage("reduceResolution") {
+		protected void apply(Scan scan, int parameter) {
+			scan.reduceResolution(parameter);
+		}
+	};
+
+	/**
+	 * The hole filling stage. The parameter is the maximum hole gap
+	 */
+	public static final Stage FILL_HOLES = new Stage("fillHoles") {
+		protected void apply(Scan scan, int parameter) {
+			scan.fillHoles(parameter);
+		}
+	};
+
+	/**
+	 * The smoothing stage. The parameter is the Gaussian kernel size. It uses a square kernel, so the results differ
+	 * slightly from the circular kernel in Scan.gaussianSmooth
+	 */
+	public static final Stage GAUSSIAN_SMOOTH = new Stage("gaussianSmooth") {
+		protected void apply(Scan scan, int parameter) {
+			scan.gaussianSmoothSeparable(parameter);
+		}
+	};
+
+	/**
+	 * The normals calculation stage. The parameter is not used
+	 */
+	public static final Stage CALCULATE_NORMALS = new Stage("calculateNormals") {
+		protected void apply(Scan scan, int parameter) {
+			scan.calculateNormals();
+		}
+	};
+
+	/**
+	 * The cached stage outputs, in access order
+	 */
+	protected LinkedHashMap<CacheKey, Scan> cache;
+
+	/**
+	 * The cache memory budget in bytes
+	 */
+	protected long memoryBudget;
+
+	/**
+	 * The memory used by the cached outputs in bytes
+	 */
+	protected long memoryUsed;
+
+	/**
+	 * Constructs an empty scan pipeline with the default memory budget
+	 */
+	public ScanPipeline() {
+		this(DEFAULT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * Constructs an empty scan pipeline
+	 * 
+	 * @param memoryBudget the cache memory budget in bytes
+	 */
+	public ScanPipeline(long memoryBudget) {
+		this.cache = new LinkedHashMap<CacheKey, Scan>(16, 0.75f, true);
+		this.memoryBudget = memoryBudget;
+		this.memoryUsed = 0;
+	}
+
+	/**
+	 * Processes a scan with all the pipeline stages
+	 * 
+	 * @param originalScan the scan to process. It will not be modified
+	 * @param reductionFactor the scale reduction factor
+	 * @param maxHoleGap the maximum hole gap
+	 * @param kernelSize the smoothing kernel size
+	 * @return the processed scan
+	 */
+	public Scan process(Scan originalScan, int reductionFactor, int maxHoleGap, int kernelSize) {
+		Scan scan = apply(REDUCE_RESOLUTION, originalScan, reductionFactor);
+		scan = apply(FILL_HOLES, scan, maxHoleGap);
+		scan = apply(GAUSSIAN_SMOOTH, scan, kernelSize);
+		return apply(CALCULATE_NORMALS, scan, 0);
+	}
+
+	/**
+	 * Applies a stage to a scan, using the cached output if the stage was already applied to the same scan with the
+	 * same parameter
+	 * 
+	 * @param stage the stage to apply
+	 * @param input the stage input scan. It will not be modified
+	 * @param parameter the stage parameter
+	 * @return the stage output scan
+	 */
+	public synchronized Scan apply(Stage stage, Scan input, int parameter) {
+		CacheKey key = new CacheKey(stage, input, parameter);
+		Scan output = cache.get(key);
+
+		if (output == null) {
+			// Apply the stage to a copy of the input scan and release the arrays that are not needed anymore
+			output = input.copy();
+			stage.apply(output, parameter);
+			output.releaseScratchArrays();
+
+			// Add the output to the cache, removing the least recently used outputs if necessary
+			cache.put(key, output);
+			updateMemoryUsed();
+
+			while (memoryUsed > memoryBudget && cache.size() > 1) {
+				remove(cache.keySet().iterator().next());
+				updateMemoryUsed();
+			}
+		}
+
+		return output;
+	}
+
+	/**
+	 * Removes a cached output, together with all the outputs that were calculated from it
+	 * 
+	 * @param key the output key
+	 */
+	protected void remove(CacheKey key) {
+		Scan output = cache.remove(key);
+
+		if (output != null) {
+			// Find the outputs that used the removed output as input
+			ArrayList<CacheKey> dependentKeys = new ArrayList<CacheKey>();
+
+			for (CacheKey otherKey : cache.keySet()) {
+				if (otherKey.input == output) {
+					dependentKeys.add(otherKey);
+				}
+			}
+
+			for (CacheKey dependentKey : dependentKeys) {
+				remove(dependentKey);
+			}
+		}
+	}
+
+	/**
+	 * Updates the memory used by the cached outputs, recalculating it from all the outputs
+	 */
+	protected void updateMemoryUsed() {
+		memoryUsed = 0;
+
+		for (Scan output : cache.values()) {
+			memoryUsed += getSize(output);
+		}
+	}
+
+	/**
+	 * Removes all the cached outputs
+	 */
+	public synchronized void clear() {
+		cache.clear();
+		memoryUsed = 0;
+	}
+
+	/**
+	 * Returns the number of cached outputs
+	 * 
+	 * @return the number of cached outputs
+	 */
+	public synchronized int getCacheSize() {
+		return cache.size();
+	}
+
+	/**
+	 * Returns the memory used by the cached outputs
+	 * 
+	 * @return the used memory in bytes
+	 */
+	public synchronized long getMemoryUsed() {
+		return memoryUsed;
+	}
+
+	/**
+	 * Estimates the memory used by the arrays of a scan. The edges are always counted, so the estimate doesn't depend
+	 * on whether they have been calculated
+	 * 
+	 * @param scan the scan
+	 * @return the estimated memory in bytes
+	 */
+	protected static long getSize(Scan scan) {
+		long size = 4L * scan.points.length + 4L * scan.colors.length + 8L * scan.visibilityMask.words.length;
+		size += scan.nPoints;
+
+		for (float[] array : new float[][] { scan.normals, scan.filterOutput, scan.smoothingRowPoints,
+				scan.smoothingRowBoxes, scan.smoothingOutput }) {
+			if (array != null) {
+				size += 4L * array.length;
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * Class representing a scan processing stage
+	 */
+	public static abstract class Stage {
+
+		/**
+		 * The stage name
+		 */
+		protected String name;
+
+		/**
+		 * Constructs a stage with the given name
+		 * 
+		 * @param name the stage name
+		 */
+		protected Stage(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Applies the stage to a scan, modifying it
+		 * 
+		 * @param scan the scan to modify
+		 * @param parameter the stage parameter
+		 */
+		protected abstract void apply(Scan scan, int parameter);
+
+		/**
+		 * Returns the stage name
+		 * 
+		 * @return the stage name
+		 */
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * Class used to identify the cached outputs by the stage, the input scan identity and the stage parameter
+	 */
+	protected static class CacheKey {
+
+		/**
+		 * The stage
+		 */
+		protected Stage stage;
+
+		/**
+		 * The stage input scan
+		 */
+		protected Scan input;
+
+		/**
+		 * The input scan points data generation
+		 */
+		protected int inputGeneration;
+
+		/**
+		 * The stage parameter
+		 */
+		protected int parameter;
+
+		/**
+		 * Constructs the cache key
+		 * 
+		 * @param stage the stage
+		 * @param input the stage input scan
+		 * @param parameter the stage parameter
+		 */
+		protected CacheKey(Stage stage, Scan input, int parameter) {
+			this.stage = stage;
+			this.input = input;
+			this.inputGeneration = input.generation;
+			this.parameter = parameter;
+		}
+
+		/**
+		 * Checks if the key is the same as another key
+		 * 
+		 * @param object the other key
+		 * @return true if both keys refer to the same stage, input scan, input generation and parameter
+		 */
+		public boolean equals(Object object) {
+			if (!(object instanceof CacheKey)) {
+				return false;
+			}
+
+			CacheKey key = (CacheKey) object;
+
+			return key.stage == stage && key.input == input && key.inputGeneration == inputGeneration
+					&& key.parameter == parameter;
+		}
+
+		/**
+		 * Returns the key hash code
+		 * 
+		 * @return the key hash code
+		 */
+		public int hashCode() {
+			int hash = System.identityHashCode(stage);
+			hash = 31 * hash + System.identityHashCode(input);
+			hash = 31 * hash + inputGeneration;
+			return 31 * hash + parameter;
+		}
+	}
+}
@@ -21,9 +21,14 @@ public class Slit {
 	protected PVector center;
 
 	/**
-	 * Array containing the points coordinates
+	 * The number of points in the slit
 	 */
-	protected PVector[] points;
+	protected int nPoints;
+
+	/**
+	 * Array containing the points coordinates, stored consecutively as x, y, z triplets
+	 */
+	protected float[] points;
 
 	/**
 	 * Array containing the points colors
@@ -50,9 +55,10 @@ public class Slit {
 	public Slit(KinectPoints kp, ScanBox box, boolean vertical) {
 		this.vertical = vertical;
 		this.center = box.center.copy();
-		this.points = new PVector[this.vertical ? kp.height : kp.width];
-		this.colors = new int[this.points.length];
-		this.visibilityMask = new boolean[this.points.length];
+		this.nPoints = this.vertical ? kp.height : kp.width;
+		this.points = new float[3 * this.nPoints];
+		this.colors = new int[this.nPoints];
+		this.visibilityMask = new boolean[this.nPoints];
 
 		// Find the slit position in the KinectPoints object
 		int slitPos = -1;
@@ -61,11 +67,12 @@ public class Slit {
 		for (int row = 0; row < kp.height; row++) {
 			for (int col = 0; col < kp.width; col++) {
 				int index = col + row * kp.width;
-				PVector point = kp.points[index];
+				float x = kp.points[3 * index];
+				float y = kp.points[3 * index + 1];
+				float z = kp.points[3 * index + 2];
 
-				if (kp.visibilityMask[index] && box.isInside(point)) {
-					float distance = this.vertical ? Math.abs(point.x - this.center.x)
-							: Math.abs(point.y - this.center.y);
+				if (kp.visibilityMask.get(index) && box.isInside(x, y, z)) {
+					float distance = this.vertical ? Math.abs(x - this.center.x) : Math.abs(y - this.center.y);
 
 					if (distance < minDistance) {
 						slitPos = this.vertical ? col : row;
@@ -76,17 +83,19 @@ public class Slit {
 		}
 
 		// Populate the slit arrays
-		for (int i = 0; i < this.points.length; i++) {
-			this.points[i] = new PVector();
-
+		for (int i = 0; i < this.nPoints; i++) {
 			if (slitPos >= 0) {
 				int index = this.vertical ? slitPos + i * kp.width : i + slitPos * kp.width;
-				PVector point = kp.points[index];
-
-				if (kp.visibilityMask[index] && box.isInside(point)) {
-					this.points[i].set(point);
+				float x = kp.points[3 * index];
+				float y = kp.points[3 * index + 1];
+				float z = kp.points[3 * index + 2];
+
+				if (kp.visibilityMask.get(index) && box.isInside(x, y, z)) {
+					this.points[3 * i] = x;
+					this.points[3 * i + 1] = y;
+					this.points[3 * i + 2] = z;
 					this.colors[i] = kp.colors[index];
-					this.visibilityMask[i] = kp.visibilityMask[index];
+					this.visibilityMask[i] = kp.visibilityMask.get(index);
 				}
 			}
 		}
@@ -0,0 +1,427 @@
+package jagracar.kinect.containers;
+
+import java.util.ArrayList;
+
+import processing.core.PApplet;
+import processing.core.PMatrix3D;
+import processing.core.PVector;
+
+/**
+ * Class used to build a scan from a sequence of slits, adding one slit at a time.
+ * 
+ * The slits are transformed only once, when they are added, and are stored as consecutive columns (vertical slits) or
+ * rows (horizontal slits) of a preallocated scan whose capacity grows when it's full. The part of the slit rotation or
+ * offset that depends on the total number of slits, and the common center, is the same for all the slits and is set
+ * as the model transformation of the scan used to draw the slits and of the scans obtained from them
+ * 
+ * @author Javier Graciá Carpio (jagracar)
+ */
+public class SlitScan {
+
+	/**
+	 * The rotation angle between consecutive slits in radians
+	 */
+	public static final float ROTATION_STEP = 4 * PApplet.PI / 180;
+
+	/**
+	 * The offset between consecutive slits
+	 */
+	public static final float OFFSET_STEP = 5;
+
+	/**
+	 * The initial number of slits that fit in the scan
+	 */
+	public static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * The parent Processing applet
+	 */
+	protected PApplet p;
+
+	/**
+	 * The list of slits
+	 */
+	protected ArrayList<Slit> slits;
+
+	/**
+	 * If true the slits will be rotated around their center
+	 */
+	protected boolean rotate;
+
+	/**
+	 * If true all the slits will be moved to have the same center
+	 */
+	protected boolean commonCenter;
+
+	/**
+	 * The slits orientation
+	 */
+	protected boolean vertical;
+
+	/**
+	 * The number of points in each slit
+	 */
+	protected int slitLength;
+
+	/**
+	 * True if all the slits have the same center. If the slits are rotated around different centers the rotation
+	 * cannot be applied as a common transformation and the complete scan has to be recalculated with every new slit
+	 */
+	protected boolean sameCenter;
+
+	/**
+	 * The scan containing the transformed slits
+	 */
+	protected Scan scan;
+
+	/**
+	 * The maximum number of slits that fit in the scan
+	 */
+	protected int capacity;
+
+	/**
+	 * Constructs an empty slit scan
+	 * 
+	 * @param p the parent Processing applet
+	 * @param rotate if true the slits will be rotated around their center
+	 * @param commonCenter if true all the slits will be moved to have the same center
+	 */
+	public SlitScan(PApplet p, boolean rotate, boolean commonCenter) {
+		this.p = p;
+		this.slits = new ArrayList<Slit>();
+		this.rotate = rotate;
+		this.commonCenter = commonCenter;
+		this.sameCenter = true;
+		this.scan = null;
+		this.capacity = 0;
+	}
+
+	/**
+	 * Returns the number of slits in the slit scan
+	 * 
+	 * @return the number of slits
+	 */
+	public int getNumSlits() {
+		return slits.size();
+	}
+
+	/**
+	 * Removes all the slits
+	 */
+	public void clear() {
+		slits.clear();
+		sameCenter = true;
+		scan = null;
+		capacity = 0;
+	}
+
+	/**
+	 * Changes the slit scan options. The slits will be transformed again if the options change
+	 * 
+	 * @param newRotate if true the slits will be rotated around their center
+	 * @param newCommonCenter if true all the slits will be moved to have the same center
+	 */
+	public void setOptions(boolean newRotate, boolean newCommonCenter) {
+		if (newRotate != rotate || newCommonCenter != commonCenter) {
+			rotate = newRotate;
+			commonCenter = newCommonCenter;
+			rebuild();
+		}
+	}
+
+	/**
+	 * Adds a slit to the slit scan. If the slit has a different orientation or length than the previous slits, the
+	 * slit scan will be cleared first
+	 * 
+	 * @param slit the slit to add
+	 */
+	public void addSlit(Slit slit) {
+		if (slits.size() > 0 && (slit.vertical != vertical || slit.nPoints != slitLength)) {
+			clear();
+		}
+
+		if (slits.size() > 0 && !slit.center.equals(slits.get(0).center)) {
+			sameCenter = false;
+		}
+
+		slits.add(slit);
+
+		if (isIncremental()) {
+			ensureCapacity(slits.size());
+			addTransformedSlit(slits.size() - 1);
+		} else {
+			rebuild();
+		}
+	}
+
+	/**
+	 * Checks if the slits can be transformed incrementally
+	 * 
+	 * @return true if the slits can be transformed incrementally
+	 */
+	protected boolean isIncremental() {
+		return !rotate || commonCenter || sameCenter;
+	}
+
+	/**
+	 * Transforms again all the slits
+	 */
+	protected void rebuild() {
+		scan = null;
+		capacity = 0;
+
+		if (slits.size() > 0) {
+			ensureCapacity(slits.size());
+
+			for (int i = 0; i < slits.size(); i++) {
+				addTransformedSlit(i);
+			}
+		}
+	}
+
+	/**
+	 * Makes sure that the scan has enough space for the given number of slits, doubling its capacity if necessary
+	 * 
+	 * @param nSlits the number of slits that should fit in the scan
+	 */
+	protected void ensureCapacity(int nSlits) {
+		if (scan == null) {
+			Slit slit = slits.get(0);
+			vertical = slit.vertical;
+			slitLength = slit.nPoints;
+			capacity = Math.max(INITIAL_CAPACITY, nSlits);
+			scan = vertical ? new Scan(p, capacity, slitLength) : new Scan(p, slitLength, capacity);
+		} else if (nSlits > capacity) {
+			int newCapacity = Math.max(2 * capacity, nSlits);
+			Scan newScan = vertical ? new Scan(p, newCapacity, slitLength) : new Scan(p, slitLength, newCapacity);
+
+			if (vertical) {
+				// Copy the filled columns of each row
+				for (int row = 0; row < slitLength; row++) {
+					int index = row * capacity;
+					int newIndex = row * newCapacity;
+					System.arraycopy(scan.points, 3 * index, newScan.points, 3 * newIndex, 3 * capacity);
+					System.arraycopy(scan.colors, index, newScan.colors, newIndex, capacity);
+					newScan.visibilityMask.copyRange(scan.visibilityMask, index, newIndex, capacity);
+				}
+			} else {
+				// The rows are consecutive in the arrays
+				System.arraycopy(scan.points, 0, newScan.points, 0, scan.points.length);
+				System.arraycopy(scan.colors, 0, newScan.colors, 0, scan.nPoints);
+				newScan.visibilityMask.copyRange(scan.visibilityMask, 0, 0, scan.nPoints);
+			}
+
+			scan = newScan;
+			capacity = newCapacity;
+		}
+	}
+
+	/**
+	 * Transforms a slit and adds it to the scan. In the incremental mode the slit is rotated or shifted by the amount
+	 * that corresponds to its position in the list. Otherwise, the complete transformation is applied
+	 * 
+	 * @param i the slit position in the list
+	 */
+	protected void addTransformedSlit(int i) {
+		Slit slit = slits.get(i);
+		boolean incremental = isIncremental();
+		float rotationAngle = incremental ? -i * ROTATION_STEP : (slits.size() - 1 - i) * ROTATION_STEP;
+		float cos = PApplet.cos(rotationAngle);
+		float sin = PApplet.sin(rotationAngle);
+		float offset = -i * OFFSET_STEP;
+
+		for (int j = 0; j < slitLength; j++) {
+			int index = vertical ? i + j * capacity : j + i * slitLength;
+
+			if (slit.visibilityMask[j]) {
+				float x = slit.points[3 * j];
+				float y = slit.points[3 * j + 1];
+				float z = slit.points[3 * j + 2];
+
+				if (rotate) {
+					x -= slit.center.x;
+					y -= slit.center.y;
+					z -= slit.center.z;
+
+					if (vertical) {
+						float xRotated = cos * x - sin * z;
+						z = sin * x + cos * z;
+						x = xRotated;
+					} else {
+						float yRotated = cos * y - sin * z;
+						z = sin * y + cos * z;
+						y = yRotated;
+					}
+
+					if (!incremental) {
+						x += slit.center.x;
+						y += slit.center.y;
+						z += slit.center.z;
+					}
+				} else {
+					if (vertical) {
+						x += offset;
+					} else {
+						y += offset;
+					}
+
+					if (commonCenter) {
+						x -= slit.center.x;
+						y -= slit.center.y;
+						z -= slit.center.z;
+					}
+				}
+
+				scan.points[3 * index] = x;
+				scan.points[3 * index + 1] = y;
+				scan.points[3 * index + 2] = z;
+				scan.colors[index] = slit.colors[j];
+				scan.visibilityMask.set(index);
+			} else {
+				scan.visibilityMask.clear(index);
+			}
+		}
+
+		// Invalidate the data derived from the old scan points
+		scan.invalidate();
+	}
+
+	/**
+	 * Returns the rotation angle that should be applied to all the slits
+	 * 
+	 * @return the common rotation angle in radians
+	 */
+	protected float getCommonRotation() {
+		return (rotate && isIncremental()) ? (slits.size() - 1) * ROTATION_STEP : 0;
+	}
+
+	/**
+	 * Returns the translation that should be applied to all the slits after the common rotation
+	 * 
+	 * @return the common translation
+	 */
+	protected PVector getCommonTranslation() {
+		PVector translation = new PVector();
+
+		if (isIncremental()) {
+			if (rotate) {
+				translation.set(commonCenter ? slits.get(slits.size() - 1).center : slits.get(0).center);
+			} else {
+				float offset = (slits.size() - 1) * OFFSET_STEP;
+				translation.set(vertical ? offset : 0, vertical ? 0 : offset, 0);
+
+				if (commonCenter) {
+					translation.add(slits.get(slits.size() - 1).center);
+				}
+			}
+		}
+
+		return translation;
+	}
+
+	/**
+	 * Returns the transformation that should be applied to all the slits
+	 * 
+	 * @return the common transformation matrix
+	 */
+	protected PMatrix3D getCommonMatrix() {
+		PVector translation = getCommonTranslation();
+		PMatrix3D matrix = new PMatrix3D();
+		matrix.translate(translation.x, translation.y, translation.z);
+
+		// The slits rotation has the opposite sign than the Processing rotateY method
+		if (vertical) {
+			matrix.rotateY(-getCommonRotation());
+		} else {
+			matrix.rotateX(getCommonRotation());
+		}
+
+		return matrix;
+	}
+
+	/**
+	 * Creates a scan with the slits. The common transformation is set as the scan model transformation
+	 * 
+	 * @return the scan formed from the combination of the slits. Returns null if there are no slits
+	 */
+	public Scan getScan() {
+		if (slits.size() == 0) {
+			return null;
+		}
+
+		// Create an empty scan with the same center as the last slit added to the list
+		int nSlits = slits.size();
+		int width = vertical ? nSlits : slitLength;
+		int height = vertical ? slitLength : nSlits;
+		Scan combinedScan = new Scan(p, width, height);
+		combinedScan.center.set(slits.get(nSlits - 1).center);
+		combinedScan.setModelMatrix(getCommonMatrix());
+
+		// Fill the scan arrays
+		if (vertical) {
+			// Copy the filled columns of each row
+			for (int row = 0; row < slitLength; row++) {
+				int index = row * capacity;
+				int combinedIndex = row * width;
+				System.arraycopy(scan.points, 3 * index, combinedScan.points, 3 * combinedIndex, 3 * width);
+				System.arraycopy(scan.colors, index, combinedScan.colors, combinedIndex, width);
+				combinedScan.visibilityMask.copyRange(scan.visibilityMask, index, combinedIndex, width);
+			}
+		} else {
+			// The rows are consecutive in the arrays
+			System.arraycopy(scan.points, 0, combinedScan.points, 0, combinedScan.points.length);
+			System.arraycopy(scan.colors, 0, combinedScan.colors, 0, combinedScan.nPoints);
+			combinedScan.visibilityMask.copyRange(scan.visibilityMask, 0, 0, combinedScan.nPoints);
+		}
+
+		return combinedScan;
+	}
+
+	/**
+	 * Draws the slit scan as triangles on the screen
+	 */
+	public void drawAsTriangles() {
+		if (scan != null) {
+			scan.setModelMatrix(getCommonMatrix());
+			scan.drawAsTriangles();
+		}
+	}
+
+	/**
+	 * Draws the slit scan as triangles on the screen
+	 * 
+	 * @param trianglesColor the triangles color
+	 */
+	public void drawAsTriangles(int trianglesColor) {
+		if (scan != null) {
+			scan.setModelMatrix(getCommonMatrix());
+			scan.drawAsTriangles(trianglesColor);
+		}
+	}
+
+	/**
+	 * Draws the slit scan as a triangles mesh on the screen. The mesh is kept between calls, and it's only calculated
+	 * again when new slits are added
+	 */
+	public void drawMeshAsTriangles() {
+		if (scan != null) {
+			scan.defineMesh(false);
+			scan.setModelMatrix(getCommonMatrix());
+			scan.drawMeshAsTriangles();
+		}
+	}
+
+	/**
+	 * Draws the slit scan as a triangles mesh on the screen. The mesh is kept between calls, and it's only calculated
+	 * again when new slits are added or the triangles color changes
+	 * 
+	 * @param trianglesColor the triangles color
+	 */
+	public void drawMeshAsTriangles(int trianglesColor) {
+		if (scan != null) {
+			scan.defineMesh(false, trianglesColor);
+			scan.setModelMatrix(getCommonMatrix());
+			scan.drawMeshAsTriangles();
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package jagracar.kinect.containers;
+
+import java.util.Arrays;
+
+/**
+ * Class used to store the points visibility mask. The mask values are packed in an array of long words, 64 points per
+ * word, so that large regions of masked points can be skipped or copied a word at a time
+ * 
+ * @author Javier Graciá Carpio (jagracar)
+ */
+public class VisibilityMask {
+
+	/**
+	 * The number of points in the mask
+	 */
+	protected int size;
+
+	/**
+	 * Array containing the mask bits
+	 */
+	protected long[] words;
+
+	/**
+	 * Constructs a visibility mask with all the points masked
+	 * 
+	 * @param size the number of points in the mask
+	 */
+	public VisibilityMask(int size) {
+		this.size = size;
+		this.words = new long[(size + 63) >>> 6];
+	}
+
+	/**
+	 * Creates a copy of the visibility mask
+	 * 
+	 * @return the visibility mask copy
+	 */
+	public VisibilityMask copy() {
+		VisibilityMask mask = new VisibilityMask(size);
+		System.arraycopy(words, 0, mask.words, 0, words.length);
+
+		return mask;
+	}
+
+	/**
+	 * Returns the number of points in the mask
+	 * 
+	 * @return the number of points in the mask
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns true if the point with the given index is visible
+	 * 
+	 * @param index the point index
+	 * @return true if the point is visible
+	 */
+	public boolean get(int index) {
+		return (words[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Makes visible the point with the given index
+	 * 
+	 * @param index the point index
+	 */
+	public void set(int index) {
+		words[index >>> 6] |= 1L << index;
+	}
+
+	/**
+	 * Masks the point with the given index
+	 * 
+	 * @param index the point index
+	 */
+	public void clear(int index) {
+		words[index >>> 6] &= ~(1L << index);
+	}
+
+	/**
+	 * Sets the visibility of the point with the given index
+	 * 
+	 * @param index the point index
+	 * @param visible true if the point should be visible
+	 */
+	public void set(int index, boolean visible) {
+		if (visible) {
+			set(index);
+		} else {
+			clear(index);
+		}
+	}
+
+	/**
+	 * Masks all the points
+	 */
+	public void clearAll() {
+		Arrays.fill(words, 0);
+	}
+
+	/**
+	 * Sets the mask values equal to those from another mask with the same size
+	 * 
+	 * @param mask the mask to copy
+	 */
+	public void set(VisibilityMask mask) {
+		System.arraycopy(mask.words, 0, words, 0, words.length);
+	}
+
+	/**
+	 * Returns the index of the first visible point that occurs on or after the given index
+	 * 
+	 * @param fromIndex the index to start checking from. It should not be negative
+	 * @return the index of the next visible point, or -1 if there is no such point
+	 */
+	public int nextSetBit(int fromIndex) {
+		if (fromIndex >= size) {
+			return -1;
+		}
+
+		int wordIndex = fromIndex >>> 6;
+		long word = words[wordIndex] & (-1L << fromIndex);
+
+		while (word == 0) {
+			if (++wordIndex == words.length) {
+				return -1;
+			}
+
+			word = words[wordIndex];
+		}
+
+		return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+	}
+
+	/**
+	 * Returns the index of the last visible point that occurs on or before the given index
+	 * 
+	 * @param fromIndex the index to start checking from
+	 * @return the index of the previous visible point, or -1 if there is no such point
+	 */
+	public int previousSetBit(int fromIndex) {
+		if (fromIndex < 0 || size == 0) {
+			return -1;
+		}
+
+		int lastIndex = Math.min(fromIndex, size - 1);
+		int wordIndex = lastIndex >>> 6;
+		long word = words[wordIndex] & (-1L >>> -(lastIndex + 1));
+
+		while (word == 0) {
+			if (wordIndex-- == 0) {
+				return -1;
+			}
+
+			word = words[wordIndex];
+		}
+
+		return (wordIndex << 6) + 63 - Long.numberOfLeadingZeros(word);
+	}
+
+	/**
+	 * Returns the number of visible points
+	 * 
+	 * @return the number of visible points
+	 */
+	public int cardinality() {
+		int counter = 0;
+
+		for (long word : words) {
+			counter += Long.bitCount(word);
+		}
+
+		return counter;
+	}
+
+	/**
+	 * Returns the 64 mask bits that start at the given index. Bits outside the mask are returned as zeros
+	 * 
+	 * @param index the index of the first bit
+	 * @return the 64 mask bits
+	 */
+	protected long getBits(int index) {
+		int wordIndex = index >>> 6;
+		int shift = index & 63;
+		long bits = words[wordIndex] >>> shift;
+
+		if (shift != 0 && wordIndex + 1 < words.length) {
+			bits |= words[wordIndex + 1] << (64 - shift);
+		}
+
+		return bits;
+	}
+
+	/**
+	 * Sets a number of mask bits starting at the given index
+	 * 
+	 * @param index the index of the first bit
+	 * @param bits the new bits values
+	 * @param nBits the number of bits to set. Should be between 1 and 64
+	 */
+	protected void setBits(int index, long bits, int nBits) {
+		long bitsMask = nBits == 64 ? -1L : (1L << nBits) - 1;
+		bits &= bitsMask;
+		int wordIndex = index >>> 6;
+		int shift = index & 63;
+		words[wordIndex] = (words[wordIndex] & ~(bitsMask << shift)) | (bits << shift);
+
+		if (shift + nBits > 64) {
+			words[wordIndex + 1] = (words[wordIndex + 1] & ~(bitsMask >>> (64 - shift))) | (bits >>> (64 - shift));
+		}
+	}
+
+	/**
+	 * Copies a range of bits from another mask, 64 bits at a time
+	 * 
+	 * @param mask the mask to copy from
+	 * @param srcIndex the first bit index in the other mask
+	 * @param destIndex the first bit index in this mask
+	 * @param length the number of bits to copy
+	 */
+	public void copyRange(VisibilityMask mask, int srcIndex, int destIndex, int length) {
+		while (length > 0) {
+			int nBits = Math.min(length, 64);
+			setBits(destIndex, mask.getBits(srcIndex), nBits);
+			srcIndex += nBits;
+			destIndex += nBits;
+			length -= nBits;
+		}
+	}
+}
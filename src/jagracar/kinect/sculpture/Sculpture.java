@@ -1,6 +1,7 @@
 package jagracar.kinect.sculpture;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import processing.core.PApplet;
 import processing.core.PShape;
@@ -15,6 +16,22 @@ import toxi.geom.Vec3D;
  */
 public class Sculpture {
 
+	/**
+	 * The number of spline segments before the last control point that are recalculated in the incremental mode. The
+	 * influence of a new control point decreases by a factor ~0.27 per segment, so older segments don't change
+	 */
+	public static final int INCREMENTAL_SEGMENTS = 6;
+
+	/**
+	 * The number of extra control points used to evaluate the spline before the recalculated segments
+	 */
+	public static final int INCREMENTAL_OVERLAP = 6;
+
+	/**
+	 * The number of consecutive sections included in each of the mesh surface shapes
+	 */
+	public static final int SECTIONS_PER_SURFACE = 32;
+
 	/**
 	 * The parent Processing applet
 	 */
@@ -45,15 +62,21 @@ public class Sculpture {
 	 */
 	protected Vec3D previousPoint;
 
+	/**
+	 * The spline vertices
+	 */
+	protected ArrayList<Vec3D> vertices;
+
 	/**
 	 * The sections array list
 	 */
 	protected ArrayList<SculptureSection> sections;
 
 	/**
-	 * The sculpture mesh
+	 * The sculpture mesh shapes: the front side, the surfaces between the sections and the back side. They are drawn
+	 * one after the other, so the shapes that don't change are never tessellated again
 	 */
-	protected PShape mesh;
+	protected ArrayList<PShape> mesh;
 
 	/**
 	 * The mesh color
@@ -65,6 +88,12 @@ public class Sculpture {
 	 */
 	protected float minimumDistanceSq = 50 * 50;
 
+	/**
+	 * If true, only the last spline segments, sections and mesh surfaces are recalculated when a new control point is
+	 * added
+	 */
+	protected boolean incremental;
+
 	/**
 	 * Constructs an empty sculpture
 	 * 
@@ -80,9 +109,11 @@ public class Sculpture {
 		this.subdivisions = subdivisions;
 		this.spline = new Spline3D();
 		this.previousPoint = new Vec3D();
+		this.vertices = new ArrayList<Vec3D>();
 		this.sections = new ArrayList<SculptureSection>();
 		this.mesh = null;
 		this.meshColor = 0xffffffff;
+		this.incremental = false;
 	}
 
 	/**
@@ -98,9 +129,61 @@ public class Sculpture {
 			previousPoint.set(controlPoint);
 
 			// Calculate the sculpture sections and the mesh
+			if (incremental) {
+				updateLastSegments();
+			} else {
+				calculateSections();
+				calculateMesh();
+			}
+		}
+	}
+
+	/**
+	 * Recalculates the spline segments that are affected by the last control point, together with their sections and
+	 * mesh surfaces. The rest of the sculpture is not modified
+	 */
+	protected void updateLastSegments() {
+		int nControlPoints = getNumControlPoints();
+
+		// Check that the current vertices correspond to the previous control points
+		if (nControlPoints < 3 || vertices.size() != (nControlPoints - 2) * subdivisions + 1) {
 			calculateSections();
 			calculateMesh();
+			return;
+		}
+
+		// Evaluate the last segments using a spline with only the last control points
+		int firstSegment = Math.max(0, nControlPoints - 1 - INCREMENTAL_SEGMENTS);
+		int firstControlPoint = Math.max(0, firstSegment - INCREMENTAL_OVERLAP);
+		List<Vec3D> controlPoints = spline.getPointList();
+		Spline3D localSpline = new Spline3D();
+		localSpline.setTightness(spline.getTightness());
+
+		for (int i = firstControlPoint; i < nControlPoints; i++) {
+			localSpline.add(controlPoints.get(i));
 		}
+
+		List<Vec3D> localVertices = localSpline.computeVertices(subdivisions);
+		int firstLocalVertex = (firstSegment - firstControlPoint) * subdivisions;
+
+		if (localVertices.size() != (nControlPoints - firstControlPoint - 1) * subdivisions + 1) {
+			calculateSections();
+			calculateMesh();
+			return;
+		}
+
+		// Replace the vertices from the first recalculated segment
+		int firstVertex = firstSegment * subdivisions;
+		vertices.subList(firstVertex, vertices.size()).clear();
+
+		for (int i = firstLocalVertex; i < localVertices.size(); i++) {
+			vertices.add(localVertices.get(i).copy());
+		}
+
+		// Recalculate the sections that use the new vertices and their mesh surfaces
+		int firstSection = Math.max(0, firstVertex - 1);
+		calculateSections(firstSection);
+		calculateMesh(firstSection);
 	}
 
 	/**
@@ -168,11 +251,24 @@ public class Sculpture {
 
 			// Update the mesh
 			if (mesh != null) {
-				mesh.setFill(meshColor);
+				for (PShape shape : mesh) {
+					shape.setFill(meshColor);
+				}
 			}
 		}
 	}
 
+	/**
+	 * Sets the sculpture incremental mode. In the incremental mode, the spline segments that are more than
+	 * INCREMENTAL_SEGMENTS control points away from the last added point are not recalculated. The resulting sculpture
+	 * differs from the complete calculation by a negligible amount
+	 * 
+	 * @param newIncremental true if the sculpture should be updated incrementally
+	 */
+	public void setIncremental(boolean newIncremental) {
+		incremental = newIncremental;
+	}
+
 	/**
 	 * Returns the sculpture section radius
 	 * 
@@ -201,19 +297,46 @@ public class Sculpture {
 	}
 
 	/**
-	 * Calculates the sculpture sections between consecutive spline vertices
+	 * Calculates the spline vertices and the sculpture sections between consecutive spline vertices
 	 */
 	protected void calculateSections() {
-		// Clear the sections array
-		sections.clear();
+		// Obtain the new vertices
+		vertices.clear();
 
 		if (getNumControlPoints() > 1) {
+			for (Vec3D vertex : spline.computeVertices(subdivisions)) {
+				vertices.add(vertex.copy());
+			}
+		}
+
+		calculateSections(0);
+	}
+
+	/**
+	 * Calculates the sculpture sections between consecutive spline vertices, starting from a given section. The
+	 * previous sections are not modified
+	 * 
+	 * @param firstSection the first section to calculate
+	 */
+	protected void calculateSections(int firstSection) {
+		// Remove the sections that will be recalculated
+		sections.subList(Math.min(firstSection, sections.size()), sections.size()).clear();
+
+		if (vertices.size() > 1) {
 			// Obtain the new sections
-			ArrayList<Vec3D> vertices = (ArrayList<Vec3D>) spline.computeVertices(subdivisions);
-			Vec3D refPoint = new Vec3D();
-			Vec3D refNormal = vertices.get(1).sub(vertices.get(0)).normalize();
+			Vec3D refPoint;
+			Vec3D refNormal;
+
+			if (sections.size() == 0) {
+				refPoint = new Vec3D();
+				refNormal = vertices.get(1).sub(vertices.get(0)).normalize();
+			} else {
+				SculptureSection previousSection = sections.get(sections.size() - 1);
+				refPoint = previousSection.points[0];
+				refNormal = previousSection.normal;
+			}
 
-			for (int i = 0; i < vertices.size() - 1; i++) {
+			for (int i = sections.size(); i < vertices.size() - 1; i++) {
 				Vec3D pointBefore = vertices.get(i);
 				Vec3D pointAfter = vertices.get(i + 1);
 				Vec3D center = pointAfter.add(pointBefore).scaleSelf(0.5f);
@@ -228,59 +351,99 @@ public class Sculpture {
 	}
 
 	/**
-	 * Calculates the sculpture mesh
+	 * Calculates the sculpture mesh. The mesh is formed by the front side, the surfaces between the sections
+	 * (SECTIONS_PER_SURFACE sections per shape) and the back side
 	 */
 	protected void calculateMesh() {
 		if (sections.size() > 1) {
 			// Create the sculpture mesh
-			mesh = p.createShape(PApplet.GROUP);
-			mesh.fill(meshColor);
+			mesh = new ArrayList<PShape>();
 
 			// Add the front side
-			mesh.addChild(sections.get(0).calculateMesh(p, meshColor));
-
-			// Calculate and add the mesh surface
-			PShape surface = p.createShape();
-			surface.beginShape(PApplet.TRIANGLES);
-			surface.noStroke();
-			surface.fill(meshColor);
-
-			for (int i = 0; i < sections.size() - 1; i++) {
-				SculptureSection section1 = sections.get(i);
-				SculptureSection section2 = sections.get(i + 1);
-
-				for (int j = 0; j < section1.points.length - 1; j++) {
-					Vec3D point1 = section1.points[j];
-					Vec3D point2 = section1.points[j + 1];
-					Vec3D point3 = section2.points[j];
-					Vec3D point4 = section2.points[j + 1];
-					surface.vertex(point1.x, point1.y, point1.z);
-					surface.vertex(point2.x, point2.y, point2.z);
-					surface.vertex(point3.x, point3.y, point3.z);
-					surface.vertex(point2.x, point2.y, point2.z);
-					surface.vertex(point4.x, point4.y, point4.z);
-					surface.vertex(point3.x, point3.y, point3.z);
-				}
+			mesh.add(sections.get(0).calculateMesh(p, meshColor));
 
-				Vec3D closePoint1 = section1.points[section1.points.length - 1];
-				Vec3D closePoint2 = section1.points[0];
-				Vec3D closePoint3 = section2.points[section1.points.length - 1];
-				Vec3D closePoint4 = section2.points[0];
-				surface.vertex(closePoint1.x, closePoint1.y, closePoint1.z);
-				surface.vertex(closePoint2.x, closePoint2.y, closePoint2.z);
-				surface.vertex(closePoint3.x, closePoint3.y, closePoint3.z);
-				surface.vertex(closePoint2.x, closePoint2.y, closePoint2.z);
-				surface.vertex(closePoint4.x, closePoint4.y, closePoint4.z);
-				surface.vertex(closePoint3.x, closePoint3.y, closePoint3.z);
+			// Calculate and add the mesh surfaces
+			for (int i = 0; i < sections.size() - 1; i += SECTIONS_PER_SURFACE) {
+				mesh.add(calculateSurface(i, Math.min(i + SECTIONS_PER_SURFACE, sections.size() - 1)));
 			}
 
-			surface.endShape();
+			// Add the back side
+			mesh.add(sections.get(sections.size() - 1).calculateMesh(p, meshColor));
+		}
+	}
 
-			mesh.addChild(surface);
+	/**
+	 * Updates the sculpture mesh after the sections have been recalculated from a given section. Only the mesh
+	 * surfaces that contain the recalculated sections and the back side are replaced. The other shapes are kept as
+	 * they are, together with their tessellation
+	 * 
+	 * @param firstSection the first recalculated section
+	 */
+	protected void calculateMesh(int firstSection) {
+		if (mesh == null || firstSection == 0 || sections.size() < 2) {
+			calculateMesh();
+			return;
+		}
 
-			// Add the back side
-			mesh.addChild(sections.get(sections.size() - 1).calculateMesh(p, meshColor));
+		// Remove the surfaces that use the recalculated sections and the back side
+		int firstSurface = (firstSection - 1) / SECTIONS_PER_SURFACE;
+
+		mesh.subList(Math.min(firstSurface + 1, mesh.size()), mesh.size()).clear();
+
+		// Add the new surfaces
+		for (int i = firstSurface * SECTIONS_PER_SURFACE; i < sections.size() - 1; i += SECTIONS_PER_SURFACE) {
+			mesh.add(calculateSurface(i, Math.min(i + SECTIONS_PER_SURFACE, sections.size() - 1)));
 		}
+
+		// Add the back side
+		mesh.add(sections.get(sections.size() - 1).calculateMesh(p, meshColor));
+	}
+
+	/**
+	 * Calculates the mesh surface between a range of consecutive sections
+	 * 
+	 * @param start the index of the first section
+	 * @param end the index of the last section
+	 * @return the mesh surface
+	 */
+	protected PShape calculateSurface(int start, int end) {
+		PShape surface = p.createShape();
+		surface.beginShape(PApplet.TRIANGLES);
+		surface.noStroke();
+		surface.fill(meshColor);
+
+		for (int i = start; i < end; i++) {
+			SculptureSection section1 = sections.get(i);
+			SculptureSection section2 = sections.get(i + 1);
+
+			for (int j = 0; j < section1.points.length - 1; j++) {
+				Vec3D point1 = section1.points[j];
+				Vec3D point2 = section1.points[j + 1];
+				Vec3D point3 = section2.points[j];
+				Vec3D point4 = section2.points[j + 1];
+				surface.vertex(point1.x, point1.y, point1.z);
+				surface.vertex(point2.x, point2.y, point2.z);
+				surface.vertex(point3.x, point3.y, point3.z);
+				surface.vertex(point2.x, point2.y, point2.z);
+				surface.vertex(point4.x, point4.y, point4.z);
+				surface.vertex(point3.x, point3.y, point3.z);
+			}
+
+			Vec3D closePoint1 = section1.points[section1.points.length - 1];
+			Vec3D closePoint2 = section1.points[0];
+			Vec3D closePoint3 = section2.points[section1.points.length - 1];
+			Vec3D closePoint4 = section2.points[0];
+			surface.vertex(closePoint1.x, closePoint1.y, closePoint1.z);
+			surface.vertex(closePoint2.x, closePoint2.y, closePoint2.z);
+			surface.vertex(closePoint3.x, closePoint3.y, closePoint3.z);
+			surface.vertex(closePoint2.x, closePoint2.y, closePoint2.z);
+			surface.vertex(closePoint4.x, closePoint4.y, closePoint4.z);
+			surface.vertex(closePoint3.x, closePoint3.y, closePoint3.z);
+		}
+
+		surface.endShape();
+
+		return surface;
 	}
 
 	/**
@@ -289,6 +452,7 @@ public class Sculpture {
 	public void clear() {
 		spline = new Spline3D();
 		previousPoint.set(0, 0, 0);
+		vertices.clear();
 		sections.clear();
 		mesh = null;
 	}
@@ -381,7 +545,9 @@ public class Sculpture {
 	 */
 	public void draw() {
 		if (mesh != null) {
-			p.shape(mesh);
+			for (PShape shape : mesh) {
+				p.shape(shape);
+			}
 		}
 	}
 
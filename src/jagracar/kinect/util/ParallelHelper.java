@@ -0,0 +1,143 @@
+package jagracar.kinect.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Helper class containing some useful methods to split array calculations between several processor cores
+ * 
+ * @author Javier Graciá Carpio (jagracar)
+ */
+public class ParallelHelper {
+
+	/**
+	 * Controls if the calculations should be run in parallel or sequentially
+	 */
+	protected static boolean parallelEnabled = true;
+
+	/**
+	 * Interface that should be implemented by the calculations that can be split in independent ranges
+	 */
+	public interface RangeTask {
+
+		/**
+		 * Runs the calculation on the given range of elements
+		 * 
+		 * @param start the first element index
+		 * @param end the last element index plus one
+		 */
+		void run(int start, int end);
+	}
+
+	/**
+	 * Fork/join action that splits a range in two halves until the range is small enough
+	 */
+	protected static class RangeAction extends RecursiveAction {
+
+		/**
+		 * Serial version UID
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The task to run
+		 */
+		protected final RangeTask task;
+
+		/**
+		 * The first element index
+		 */
+		protected final int start;
+
+		/**
+		 * The last element index plus one
+		 */
+		protected final int end;
+
+		/**
+		 * The maximum range size that will not be split further
+		 */
+		protected final int rangeSize;
+
+		/**
+		 * Constructs a new range action
+		 * 
+		 * @param task the task to run
+		 * @param start the first element index
+		 * @param end the last element index plus one
+		 * @param rangeSize the maximum range size that will not be split further
+		 */
+		public RangeAction(RangeTask task, int start, int end, int rangeSize) {
+			this.task = task;
+			this.start = start;
+			this.end = end;
+			this.rangeSize = rangeSize;
+		}
+
+		/**
+		 * Runs the task, splitting the range if it's too large
+		 */
+		protected void compute() {
+			if (end - start <= rangeSize) {
+				task.run(start, end);
+			} else {
+				int middle = (start + end) >>> 1;
+				invokeAll(new RangeAction(task, start, middle, rangeSize),
+						new RangeAction(task, middle, end, rangeSize));
+			}
+		}
+	}
+
+	/**
+	 * This class has no public constructor, only static methods
+	 */
+	private ParallelHelper() {
+
+	}
+
+	/**
+	 * Enables or disables the parallel calculations. It can be useful to disable them to compare performances
+	 * 
+	 * @param enabled true if the calculations should be run in parallel
+	 */
+	public static void setParallelEnabled(boolean enabled) {
+		parallelEnabled = enabled;
+	}
+
+	/**
+	 * Checks if the parallel calculations are enabled
+	 * 
+	 * @return true if the calculations are run in parallel
+	 */
+	public static boolean isParallelEnabled() {
+		return parallelEnabled;
+	}
+
+	/**
+	 * Returns the number of processor cores that will be used in the parallel calculations
+	 * 
+	 * @return the number of processor cores that will be used
+	 */
+	public static int getParallelism() {
+		return parallelEnabled ? ForkJoinPool.commonPool().getParallelism() : 1;
+	}
+
+	/**
+	 * Runs a task over a range of elements, splitting the range between the available processor cores
+	 * 
+	 * @param size the total number of elements
+	 * @param minRangeSize the minimum number of elements that is worth to run on a separate core
+	 * @param task the task to run
+	 */
+	public static void run(int size, int minRangeSize, RangeTask task) {
+		int parallelism = getParallelism();
+
+		if (parallelism <= 1 || size < 2 * minRangeSize) {
+			task.run(0, size);
+		} else {
+			// Use a few more ranges than cores to balance the load
+			int rangeSize = Math.max(minRangeSize, (size + 4 * parallelism - 1) / (4 * parallelism));
+			ForkJoinPool.commonPool().invoke(new RangeAction(task, 0, size, rangeSize));
+		}
+	}
+}
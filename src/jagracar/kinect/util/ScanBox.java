@@ -40,10 +40,22 @@ public class ScanBox {
 	 * @return true if the point is inside the box
 	 */
 	public boolean isInside(PVector point) {
+		return isInside(point.x, point.y, point.z);
+	}
+
+	/**
+	 * Checks if a given point is inside the box
+	 * 
+	 * @param x the point x coordinate
+	 * @param y the point y coordinate
+	 * @param z the point z coordinate
+	 * @return true if the point is inside the box
+	 */
+	public boolean isInside(float x, float y, float z) {
 		float halfSize = size / 2;
 
-		return Math.abs(point.x - center.x) < halfSize && Math.abs(point.y - center.y) < halfSize
-				&& Math.abs(point.z - center.z) < halfSize;
+		return Math.abs(x - center.x) < halfSize && Math.abs(y - center.y) < halfSize
+				&& Math.abs(z - center.z) < halfSize;
 	}
 
 	/**
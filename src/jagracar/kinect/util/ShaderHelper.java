@@ -0,0 +1,95 @@
+package jagracar.kinect.util;
+
+import java.util.HashMap;
+
+import processing.core.PApplet;
+import processing.opengl.PShader;
+
+/**
+ * Helper class that keeps a process-wide registry of the loaded shaders, so they are read from disk and compiled only
+ * once per Processing applet. The shaders of an applet are removed from the registry when the applet is disposed
+ * 
+ * @author Javier Graciá Carpio (jagracar)
+ */
+public class ShaderHelper {
+
+	/**
+	 * The loaded shaders for each Processing applet, indexed by their fragment and vertex file names
+	 */
+	protected static final HashMap<PApplet, HashMap<String, PShader>> shaders =
+			new HashMap<PApplet, HashMap<String, PShader>>();
+
+	/**
+	 * This class has no public constructor, only static methods
+	 */
+	private ShaderHelper() {
+
+	}
+
+	/**
+	 * Returns the shader associated to the given fragment and vertex files, loading it the first time it's requested
+	 * 
+	 * @param p the parent Processing applet
+	 * @param fragFileName the fragment shader file name
+	 * @param vertFileName the vertex shader file name
+	 * @return the shared shader
+	 */
+	public static synchronized PShader getShader(PApplet p, String fragFileName, String vertFileName) {
+		HashMap<String, PShader> appletShaders = shaders.get(p);
+
+		if (appletShaders == null) {
+			appletShaders = new HashMap<String, PShader>();
+			shaders.put(p, appletShaders);
+
+			// Remove the applet shaders from the registry when the applet is disposed
+			p.registerMethod("dispose", new AppletDisposer(p));
+		}
+
+		String key = fragFileName + "|" + vertFileName;
+		PShader shader = appletShaders.get(key);
+
+		if (shader == null) {
+			shader = p.loadShader(fragFileName, vertFileName);
+			appletShaders.put(key, shader);
+		}
+
+		return shader;
+	}
+
+	/**
+	 * Removes from the registry all the shaders loaded by a given Processing applet
+	 * 
+	 * @param p the parent Processing applet
+	 */
+	public static synchronized void clearShaders(PApplet p) {
+		shaders.remove(p);
+	}
+
+	/**
+	 * Class used to clear the registry shaders of a Processing applet when the applet is disposed. It needs to be
+	 * public, so Processing can call its dispose method
+	 */
+	public static class AppletDisposer {
+
+		/**
+		 * The Processing applet
+		 */
+		protected PApplet p;
+
+		/**
+		 * Constructs the applet disposer
+		 * 
+		 * @param p the Processing applet
+		 */
+		protected AppletDisposer(PApplet p) {
+			this.p = p;
+		}
+
+		/**
+		 * Removes the applet shaders from the registry. It's called by Processing when the applet is disposed
+		 */
+		public void dispose() {
+			clearShaders(p);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package sketches.benchmarks;
+
+import java.io.File;
+
+import jagracar.kinect.containers.MeshBuffer;
+import jagracar.kinect.containers.Scan;
+import jagracar.kinect.util.ParallelHelper;
+import processing.core.PApplet;
+
+/**
+ * A simple program that measures the time needed to perform some scan calculations on the scans in the data directory,
+ * with and without the parallel calculations
+ * 
+ * @author Javier Graciá Carpio (jagracar)
+ */
+public class ScanBenchmark {
+
+	/**
+	 * The directory containing the scans
+	 */
+	public static final String SCAN_DIR = "data/scans/";
+
+	/**
+	 * The scan files
+	 */
+	public static final String[] SCAN_FILES = new String[] { "scan1.points", "scan2.points", "scan3.points",
+			"scan4.points", "chloe.points", "diego.points" };
+
+	/**
+	 * The number of untimed runs used to warm up the virtual machine
+	 */
+	public static final int WARM_UP_RUNS = 20;
+
+	/**
+	 * The number of timed runs
+	 */
+	public static final int TIMED_RUNS = 50;
+
+	/**
+	 * This class has no public constructor, only static methods
+	 */
+	private ScanBenchmark() {
+
+	}
+
+	/**
+	 * Returns the average time needed to calculate the scan normals
+	 * 
+	 * @param scan the scan to use
+	 * @return the average time in milliseconds
+	 */
+	public static double timeNormals(Scan scan) {
+		for (int i = 0; i < WARM_UP_RUNS; i++) {
+			scan.calculateNormals();
+		}
+
+		long startTime = System.nanoTime();
+
+		for (int i = 0; i < TIMED_RUNS; i++) {
+			scan.calculateNormals();
+		}
+
+		return (System.nanoTime() - startTime) / (1e6 * TIMED_RUNS);
+	}
+
+	/**
+	 * Returns the average time needed to fill a mesh buffer with the scan triangles
+	 * 
+	 * @param scan the scan to use
+	 * @return the average time in milliseconds
+	 */
+	public static double timeMeshBuffer(Scan scan) {
+		MeshBuffer buffer = new MeshBuffer();
+
+		for (int i = 0; i < WARM_UP_RUNS; i++) {
+			buffer.fillTriangles(scan, true);
+		}
+
+		long startTime = System.nanoTime();
+
+		for (int i = 0; i < TIMED_RUNS; i++) {
+			buffer.fillTriangles(scan, true);
+		}
+
+		return (System.nanoTime() - startTime) / (1e6 * TIMED_RUNS);
+	}
+
+	/**
+	 * Runs the benchmark
+	 * 
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		PApplet p = new PApplet();
+		System.out.println("Processor cores used in the parallel calculations: "
+				+ ParallelHelper.getParallelism());
+
+		for (String scanFile : SCAN_FILES) {
+			Scan scan = new Scan(p);
+			scan.updateFromFile(new File(SCAN_DIR + scanFile).getAbsolutePath());
+
+			ParallelHelper.setParallelEnabled(false);
+			double sequentialTime = timeNormals(scan);
+			ParallelHelper.setParallelEnabled(true);
+			double parallelTime = timeNormals(scan);
+
+			System.out.println(String.format("%s: normals %.2f ms sequential, %.2f ms parallel (x%.1f)", scanFile,
+					sequentialTime, parallelTime, sequentialTime / parallelTime));
+
+			ParallelHelper.setParallelEnabled(false);
+			sequentialTime = timeMeshBuffer(scan);
+			ParallelHelper.setParallelEnabled(true);
+			parallelTime = timeMeshBuffer(scan);
+
+			System.out.println(String.format("%s: triangles mesh %.2f ms sequential, %.2f ms parallel (x%.1f)",
+					scanFile, sequentialTime, parallelTime, sequentialTime / parallelTime));
+		}
+	}
+}
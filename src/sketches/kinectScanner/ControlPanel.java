@@ -10,7 +10,6 @@ import controlP5.Range;
 import controlP5.Slider;
 import controlP5.Textfield;
 import controlP5.Toggle;
-import jagracar.kinect.containers.KinectHelper;
 import processing.core.PApplet;
 
 /**
@@ -48,7 +47,7 @@ public class ControlPanel extends PApplet {
 	/**
 	 * The panel window height
 	 */
-	private int panelHeight = 942;
+	private int panelHeight = 1032;
 
 	/**
 	 * The panel window title
@@ -166,7 +165,7 @@ public class ControlPanel extends PApplet {
 		// General parameters group controllers
 		Group generalGroup = cp5.addGroup("generalGroup");
 		generalGroup.setPosition(marginX, marginY + groupBarHeight);
-		generalGroup.setSize(panelWidth - 2 * marginX, marginY + 6 * deltaY);
+		generalGroup.setSize(panelWidth - 2 * marginX, marginY + 9 * deltaY);
 		generalGroup.setBarHeight(groupBarHeight);
 		generalGroup.setBackgroundColor(groupBackgroundColor);
 		generalGroup.setCaptionLabel("General parameters");
@@ -236,8 +235,36 @@ public class ControlPanel extends PApplet {
 		range.getCaptionLabel().setPaddingX(padding);
 		range.setGroup(generalGroup);
 
+		toogle = cp5.addToggle("filterKinectPoints");
+		toogle.setPosition(marginX, marginY + 5 * deltaY);
+		toogle.setSize(buttonSize, buttonSize);
+		toogle.setValue(p.filterKinectPoints);
+		toogle.setCaptionLabel("Bilateral filter");
+		toogle.getCaptionLabel().align(ControlP5.RIGHT_OUTSIDE, ControlP5.CENTER).setPaddingX(padding);
+		toogle.setGroup(generalGroup);
+
+		slider = cp5.addSlider("filterKernelSize");
+		slider.setPosition(marginX, marginY + 6 * deltaY);
+		slider.setSize(sliderWidth, buttonSize);
+		slider.setRange(3, 15);
+		slider.setValue(p.filterKernelSize);
+		slider.setNumberOfTickMarks(7);
+		slider.showTickMarks(false);
+		slider.setCaptionLabel("Filter size");
+		slider.getCaptionLabel().setPaddingX(padding);
+		slider.setGroup(generalGroup);
+
+		slider = cp5.addSlider("filterDepthSigma");
+		slider.setPosition(marginX, marginY + 7 * deltaY);
+		slider.setSize(sliderWidth, buttonSize);
+		slider.setRange(5, 100);
+		slider.setValue(p.filterDepthSigma);
+		slider.setCaptionLabel("Filter depth");
+		slider.getCaptionLabel().setPaddingX(padding);
+		slider.setGroup(generalGroup);
+
 		Textfield textfield = cp5.addTextfield("fileName");
-		textfield.setPosition(marginX, marginY + 5 * deltaY - (textfieldHeight - buttonSize) / 2);
+		textfield.setPosition(marginX, marginY + 8 * deltaY - (textfieldHeight - buttonSize) / 2);
 		textfield.setSize(sliderWidth, textfieldHeight);
 		textfield.getValueLabel().setFont(createFont("arial", 15));
 		textfield.setAutoClear(false);
@@ -247,7 +274,7 @@ public class ControlPanel extends PApplet {
 
 		// Scan box group controllers
 		Group scanBoxGroup = cp5.addGroup("scanBoxGroup");
-		scanBoxGroup.setPosition(marginX, 2 * (marginY + groupBarHeight) + marginY + 6 * deltaY);
+		scanBoxGroup.setPosition(marginX, 2 * (marginY + groupBarHeight) + marginY + 9 * deltaY);
 		scanBoxGroup.setSize(panelWidth - 2 * marginX, marginY + 5 * deltaY);
 		scanBoxGroup.setBarHeight(groupBarHeight);
 		scanBoxGroup.setBackgroundColor(groupBackgroundColor);
@@ -308,7 +335,7 @@ public class ControlPanel extends PApplet {
 
 		// Scan group controllers
 		Group scanGroup = cp5.addGroup("scanGroup");
-		scanGroup.setPosition(marginX, 3 * (marginY + groupBarHeight) + 2 * marginY + 11 * deltaY);
+		scanGroup.setPosition(marginX, 3 * (marginY + groupBarHeight) + 2 * marginY + 14 * deltaY);
 		scanGroup.setSize(panelWidth - 2 * marginX, marginY + 3 * deltaY);
 		scanGroup.setBarHeight(groupBarHeight);
 		scanGroup.setBackgroundColor(groupBackgroundColor);
@@ -351,7 +378,7 @@ public class ControlPanel extends PApplet {
 
 		// Slit scan group controllers
 		Group slitScanGroup = cp5.addGroup("slitScanGroup");
-		slitScanGroup.setPosition(marginX, 4 * (marginY + groupBarHeight) + 3 * marginY + 14 * deltaY);
+		slitScanGroup.setPosition(marginX, 4 * (marginY + groupBarHeight) + 3 * marginY + 17 * deltaY);
 		slitScanGroup.setSize(panelWidth - 2 * marginX, marginY + 3 * deltaY);
 		slitScanGroup.setBarHeight(groupBarHeight);
 		slitScanGroup.setBackgroundColor(groupBackgroundColor);
@@ -413,7 +440,7 @@ public class ControlPanel extends PApplet {
 
 		// Sculpture group controllers
 		Group sculptureGroup = cp5.addGroup("sculptureGroup");
-		sculptureGroup.setPosition(marginX, 5 * (marginY + groupBarHeight) + 4 * marginY + 17 * deltaY);
+		sculptureGroup.setPosition(marginX, 5 * (marginY + groupBarHeight) + 4 * marginY + 20 * deltaY);
 		sculptureGroup.setSize(panelWidth - 2 * marginX, marginY + 4 * deltaY);
 		sculptureGroup.setBarHeight(groupBarHeight);
 		sculptureGroup.setBackgroundColor(groupBackgroundColor);
@@ -474,7 +501,7 @@ public class ControlPanel extends PApplet {
 
 		// Other effects group controllers
 		Group otherEffectsGroup = cp5.addGroup("otherEffectsGroup");
-		otherEffectsGroup.setPosition(marginX, 6 * (marginY + groupBarHeight) + 5 * marginY + 21 * deltaY);
+		otherEffectsGroup.setPosition(marginX, 6 * (marginY + groupBarHeight) + 5 * marginY + 24 * deltaY);
 		otherEffectsGroup.setSize(panelWidth - 2 * marginX, marginY + deltaY);
 		otherEffectsGroup.setBarHeight(groupBarHeight);
 		otherEffectsGroup.setBackgroundColor(groupBackgroundColor);
@@ -613,6 +640,12 @@ public class ControlPanel extends PApplet {
 		} else if (controllerName.equals("zRange")) {
 			p.limits[0].z = controller.getArrayValue(0);
 			p.limits[1].z = controller.getArrayValue(1);
+		} else if (controllerName.equals("filterKinectPoints")) {
+			p.filterKinectPoints = ((Toggle) controller).getBooleanValue();
+		} else if (controllerName.equals("filterKernelSize")) {
+			p.filterKernelSize = Math.round(controller.getValue());
+		} else if (controllerName.equals("filterDepthSigma")) {
+			p.filterDepthSigma = controller.getValue();
 		} else if (controllerName.equals("fileName")) {
 			p.fileName = ((Textfield) controller).getText();
 			System.out.println("Data will be saved in " + p.outputDir + p.fileName + "-*.*");
@@ -688,16 +721,10 @@ public class ControlPanel extends PApplet {
 			}
 		} else if (controllerName.equals("rotateSlitScan")) {
 			p.rotateSlitScan = ((Toggle) controller).getBooleanValue();
-
-			if (!p.takeSlitScan && p.slits.size() > 0) {
-				p.slitScan = KinectHelper.combineSlits(p, p.slits, p.rotateSlitScan, p.centerSlitScan);
-			}
+			p.slitScan.setOptions(p.rotateSlitScan, p.centerSlitScan);
 		} else if (controllerName.equals("centerSlitScan")) {
 			p.centerSlitScan = ((Toggle) controller).getBooleanValue();
-
-			if (!p.takeSlitScan && p.slits.size() > 0) {
-				p.slitScan = KinectHelper.combineSlits(p, p.slits, p.rotateSlitScan, p.centerSlitScan);
-			}
+			p.slitScan.setOptions(p.rotateSlitScan, p.centerSlitScan);
 		} else if (controllerName.equals("slitScanBang")) {
 			p.takeSlitScan = !p.takeSlitScan;
 
@@ -709,8 +736,7 @@ public class ControlPanel extends PApplet {
 		} else if (controllerName.equals("drawSlitScan")) {
 			p.drawSlitScan = ((Toggle) controller).getBooleanValue();
 		} else if (controllerName.equals("clearSlitScan")) {
-			p.slits.clear();
-			p.slitScan = null;
+			p.slitScan.clear();
 
 			if (!p.takeSlitScan) {
 				cp5.getController("slitScanBang").setCaptionLabel("Start slit scan");
@@ -1,12 +1,11 @@
 package sketches.kinectScanner;
 
-import java.util.ArrayList;
-
 import SimpleOpenNI.SimpleOpenNI;
-import jagracar.kinect.containers.KinectHelper;
 import jagracar.kinect.containers.KinectPoints;
 import jagracar.kinect.containers.Scan;
+import jagracar.kinect.containers.ScanAccumulator;
 import jagracar.kinect.containers.Slit;
+import jagracar.kinect.containers.SlitScan;
 import jagracar.kinect.sculpture.Sculpture;
 import jagracar.kinect.util.Floor;
 import jagracar.kinect.util.ImageHelper;
@@ -40,6 +39,9 @@ public class KinectScannerSketch extends PApplet {
 	public boolean monochrome = false;
 	public int monochromeColor = 255;
 	public int resolution = 2;
+	public boolean filterKinectPoints = false;
+	public int filterKernelSize = 5;
+	public float filterDepthSigma = 30;
 	// public PVector[] limits = null;
 	public PVector[] limits = new PVector[] { new PVector(-1100, -1500, 0), new PVector(1100, 1000, 3300) };
 	public String fileName = "test";
@@ -73,9 +75,8 @@ public class KinectScannerSketch extends PApplet {
 	public Floor floor;
 	public ControlPanel controlPanel;
 	public Scan scan;
-	public Scan slitScan;
-	public ArrayList<Scan> scansToAverage = new ArrayList<Scan>();
-	public ArrayList<Slit> slits = new ArrayList<Slit>();
+	public SlitScan slitScan = new SlitScan(this, rotateSlitScan, centerSlitScan);
+	public ScanAccumulator scanAccumulator = new ScanAccumulator(this);
 
 	// Scene perspective variables
 	public float initZoom = 0.35f;
@@ -138,6 +139,7 @@ public class KinectScannerSketch extends PApplet {
 		// Initialize the sculpture
 		sculpture = new Sculpture(this, 60f, 30, 10);
 		sculpture.setColor(color(230, 100, 100));
+		sculpture.setIncremental(true);
 
 		// Initialize the bier object for the Oktoberfest game
 		PImage bierImg = loadImage(imgDir + "mass.png");
@@ -184,12 +186,14 @@ public class KinectScannerSketch extends PApplet {
 			background(220);
 		}
 
-		// Update the kinect points
+		// Update the kinect points, constraining their visibility to the limits defined by the user
 		context.update();
-		kPoints.update(context.depthMapRealWorld(), context.rgbImage(), context.depthMap(), resolution);
+		kPoints.update(context.depthMapRealWorld(), context.rgbImage(), context.depthMap(), resolution, limits);
 
-		// Constrain the Kinect points visibility to the limits defined by the user
-		kPoints.constrainPoints(limits);
+		// Smooth the Kinect points preserving the depth edges
+		if (filterKinectPoints) {
+			kPoints.bilateralFilter(filterKernelSize, filterDepthSigma);
+		}
 
 		// Check if the hand detection and tracking should be enabled or disabled
 		if (takeSculpture || oktoberfest || handControl) {
@@ -274,17 +278,17 @@ public class KinectScannerSketch extends PApplet {
 				scan = new Scan(kPoints, box);
 				frameIterator = framesPerScan;
 			} else {
-				scansToAverage.add(new Scan(kPoints, box));
+				scanAccumulator.add(kPoints, box);
 				frameIterator++;
 				println("Take scan: Running (frame " + frameIterator + ")");
 
 				if (frameIterator >= framesPerScan) {
-					scan = KinectHelper.averageScans(scansToAverage);
+					scan = scanAccumulator.getScan();
 				}
 			}
 
 			if (frameIterator >= framesPerScan) {
-				scansToAverage.clear();
+				scanAccumulator.clear();
 				frameIterator = 0;
 				scanCounter++;
 				takeScan = false;
@@ -292,13 +296,16 @@ public class KinectScannerSketch extends PApplet {
 			}
 		}
 
-		// Draw the last scan taken
+		// Draw the last scan taken. The scan mesh is kept between frames, and it's only calculated again when the scan
+		// or the monochrome setting change
 		if (drawScan && !takeScan && scan != null) {
 			if (monochrome) {
-				scan.drawAsTriangles(monochromeColor);
+				scan.defineMesh(false, monochromeColor);
 			} else {
-				scan.drawAsTriangles();
+				scan.defineMesh(false);
 			}
+
+			scan.drawMeshAsTriangles();
 		}
 
 		// Save the last scan taken
@@ -315,27 +322,27 @@ public class KinectScannerSketch extends PApplet {
 
 		// Check if a slit scan should be taken
 		if (takeSlitScan) {
-			slits.add(new Slit(kPoints, box, verticalSlitScan));
-			slitScan = KinectHelper.combineSlits(this, slits, rotateSlitScan, centerSlitScan);
-			println("Take slit scan: Running (" + slits.size() + " slits)");
+			slitScan.addSlit(new Slit(kPoints, box, verticalSlitScan));
+			println("Take slit scan: Running (" + slitScan.getNumSlits() + " slits)");
 		}
 
 		// Draw the last slit scan taken
-		if (drawSlitScan && slitScan != null) {
+		if (drawSlitScan && slitScan.getNumSlits() > 0) {
 			if (monochrome) {
-				slitScan.drawAsTriangles(monochromeColor);
+				slitScan.drawMeshAsTriangles(monochromeColor);
 			} else {
-				slitScan.drawAsTriangles();
+				slitScan.drawMeshAsTriangles();
 			}
 		}
 
 		// Save the last slit scan taken
 		if (saveSlitScan) {
-			if (slitScan != null) {
+			if (slitScan.getNumSlits() > 0) {
 				slitScanCounter++;
-				slitScan.crop();
+				Scan combinedSlits = slitScan.getScan();
+				combinedSlits.crop();
 				String slitScanFileName = outputDir + fileName + "-slit" + slitScanCounter + ".points";
-				slitScan.savePoints(slitScanFileName);
+				combinedSlits.savePoints(slitScanFileName);
 				println("Save slit scan: 3D points saved in " + slitScanFileName);
 			}
 
@@ -8,6 +8,7 @@ import controlP5.Group;
 import controlP5.ScrollableList;
 import controlP5.Slider;
 import controlP5.Toggle;
+import jagracar.kinect.containers.Scan;
 
 /**
  * Class used to control the Kinect scan viewer sketch
@@ -118,7 +119,7 @@ public class ControlPanel {
 		// Create the main group that will contain the rest of the groups
 		Group mainGroup = cp5.addGroup("mainGroup");
 		mainGroup.setPosition(marginX, marginY + groupBarHeight);
-		mainGroup.setSize(groupWidth, 5 * marginY + 6 * buttonSize + 7 * deltaY);
+		mainGroup.setSize(groupWidth, 5 * marginY + 6 * buttonSize + 8 * deltaY);
 		mainGroup.setBarHeight(groupBarHeight);
 		mainGroup.setBackgroundColor(groupBackgroundColor);
 		mainGroup.setCaptionLabel("Controls");
@@ -127,7 +128,7 @@ public class ControlPanel {
 		// Create the scan group and add its controllers
 		Group scanGroup = cp5.addGroup("scanGroup");
 		scanGroup.setPosition(marginX, marginY);
-		scanGroup.setSize(groupWidth - 2 * marginX, marginY + 2 * buttonSize + 5 * deltaY);
+		scanGroup.setSize(groupWidth - 2 * marginX, marginY + 2 * buttonSize + 6 * deltaY);
 		scanGroup.setBarHeight(0);
 		scanGroup.setBackgroundColor(groupBackgroundColor);
 		scanGroup.getCaptionLabel().setVisible(false);
@@ -193,14 +194,22 @@ public class ControlPanel {
 		Toggle toogle = cp5.addToggle("useNormals");
 		toogle.setPosition(marginX + deltaX, marginY + 2 * buttonSize + 4 * deltaY);
 		toogle.setSize(buttonSize, buttonSize);
-		toogle.setValue(1);
+		toogle.setValue(p.useNormals ? 1 : 0);
 		toogle.setCaptionLabel("Use normals");
 		toogle.getCaptionLabel().align(ControlP5.RIGHT_OUTSIDE, ControlP5.CENTER).setPaddingX(padding);
 		toogle.setGroup(scanGroup);
 
+		toogle = cp5.addToggle("useIndexedMesh");
+		toogle.setPosition(marginX, marginY + 2 * buttonSize + 5 * deltaY);
+		toogle.setSize(buttonSize, buttonSize);
+		toogle.setValue(p.useIndexedMesh ? 1 : 0);
+		toogle.setCaptionLabel("Indexed mesh");
+		toogle.getCaptionLabel().align(ControlP5.RIGHT_OUTSIDE, ControlP5.CENTER).setPaddingX(padding);
+		toogle.setGroup(scanGroup);
+
 		// Create the effects group and add its controllers
 		Group effectsGroup = cp5.addGroup("effectsGroup");
-		effectsGroup.setPosition(marginX, 3 * marginY + 2 * buttonSize + 5 * deltaY);
+		effectsGroup.setPosition(marginX, 3 * marginY + 2 * buttonSize + 6 * deltaY);
 		effectsGroup.setSize(groupWidth - 2 * marginX, marginY + 4 * buttonSize + 2 * deltaY);
 		effectsGroup.setBarHeight(0);
 		effectsGroup.setBackgroundColor(groupBackgroundColor);
@@ -276,22 +285,13 @@ public class ControlPanel {
 
 		if (controllerName.equals("scanFace") || controllerName.equals("resolution")
 				|| controllerName.equals("smoothness") || controllerName.equals("fillHoleSize")) {
-			// Start with the original scan
-			p.scan = p.scans[(int) cp5.getController("scanFace").getValue()].copy();
-
-			// Modify the scan according to the controllers values
-			p.scan.reduceResolution((int) cp5.getController("resolution").getValue());
-			p.scan.fillHoles((int) cp5.getController("fillHoleSize").getValue());
-			p.scan.gaussianSmooth((int) cp5.getController("smoothness").getValue());
-
-			// Calculate the scan point normals
-			p.scan.calculateNormals();
-
-			// Calculate the scan meshes
-			boolean addNormals = (int) cp5.getController("useNormals").getValue() == 1;
-			p.scan.calculateMesh(addNormals);
-			p.scan.calculatePointsMesh(addNormals, 2);
-			p.scan.calculateLinesMesh(addNormals, 1);
+			// Process the original scan in the background according to the controllers values. The sketch will
+			// continue drawing the current scan until the new one is ready
+			Scan originalScan = p.scans[(int) cp5.getController("scanFace").getValue()];
+			int resolution = (int) cp5.getController("resolution").getValue();
+			int fillHoleSize = (int) cp5.getController("fillHoleSize").getValue();
+			int smoothness = (int) cp5.getController("smoothness").getValue();
+			p.scanProcessor.process(originalScan, resolution, fillHoleSize, smoothness);
 		} else if (controllerName.equals("drawingMode")) {
 			drawingModeIterator = drawingModeIterator == 2 ? 0 : drawingModeIterator + 1;
 			controller.setCaptionLabel(drawingModes[drawingModeIterator]);
@@ -314,11 +314,13 @@ public class ControlPanel {
 				break;
 			}
 		} else if (controllerName.equals("useNormals")) {
-			// Calculate the scan meshes
-			boolean addNormals = (int) controller.getValue() == 1;
-			p.scan.calculateMesh(addNormals);
-			p.scan.calculatePointsMesh(addNormals, 2);
-			p.scan.calculateLinesMesh(addNormals, 1);
+			// Define the scan meshes again
+			p.useNormals = (int) controller.getValue() == 1;
+			p.defineScanMeshes();
+		} else if (controllerName.equals("useIndexedMesh")) {
+			// Define the scan meshes again
+			p.useIndexedMesh = (int) controller.getValue() == 1;
+			p.defineScanMeshes();
 		}
 	}
 
@@ -0,0 +1,292 @@
+package sketches.scanViewer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jagracar.kinect.containers.Scan;
+import jagracar.kinect.containers.ScanPipeline;
+
+/**
+ * Class used to process the scans in a background thread, so the sketch can continue drawing while the controllers
+ * are moved.
+ * 
+ * The requests are coalesced: every new request makes the previous ones stale, and a stale request is abandoned as soon
+ * as it's noticed, between two processing steps. The requests also wait a short time before they start, so only the
+ * last of a series of rapid requests is processed. The wait ends as soon as a newer request arrives. In the
+ * progressive mode, large scans are first processed at a coarse resolution that is published straight away, and are
+ * refined when the requests settle. The processing steps are cached by a scan pipeline, so only the steps after the
+ * controller that changed are recalculated. The sketch picks up the processed scan when it's ready
+ * 
+ * @author Javier Graciá Carpio (jagracar)
+ */
+public class ScanProcessor {
+
+	/**
+	 * The time in milliseconds that a request waits before it starts, in case a newer request arrives
+	 */
+	public static final long DEBOUNCE_TIME = 40;
+
+	/**
+	 * The time in milliseconds that a request waits after publishing its preview, before it processes the complete
+	 * scan
+	 */
+	public static final long SETTLE_TIME = 150;
+
+	/**
+	 * The maximum number of visible points in the scan previews
+	 */
+	public static final int PREVIEW_MAX_POINTS = 10000;
+
+	/**
+	 * The executor that processes the requests in a single background thread
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * The number of the last request
+	 */
+	private AtomicInteger lastRequest;
+
+	/**
+	 * The last processed scan that has not been picked up yet
+	 */
+	private AtomicReference<Scan> processedScan;
+
+	/**
+	 * The number of the request that published the last processed scan
+	 */
+	private int publishedRequest;
+
+	/**
+	 * The pipeline that caches the output of each processing step
+	 */
+	private ScanPipeline pipeline;
+
+	/**
+	 * If true a coarse preview of large scans will be published before the complete scan is processed
+	 */
+	private boolean progressive;
+
+	/**
+	 * Constructs the ScanProcessor object
+	 */
+	public ScanProcessor() {
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				// Use a daemon thread, so it doesn't prevent the sketch from exiting
+				Thread thread = new Thread(runnable, "ScanProcessor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.lastRequest = new AtomicInteger();
+		this.processedScan = new AtomicReference<Scan>();
+		this.pipeline = new ScanPipeline();
+		this.progressive = true;
+	}
+
+	/**
+	 * Activates or deactivates the progressive mode, where a coarse preview of large scans is published before the
+	 * complete scan is processed
+	 * 
+	 * @param newProgressive true if the progressive mode should be used
+	 */
+	public void setProgressive(boolean newProgressive) {
+		progressive = newProgressive;
+	}
+
+	/**
+	 * Requests the processing of a scan in the background thread. Any previous request that is still waiting or being
+	 * processed will be abandoned
+	 * 
+	 * @param originalScan the scan to process. It will not be modified, and it's used to identify the cached results
+	 * @param resolution the scan resolution reduction factor
+	 * @param fillHoleSize the maximum size of the holes that should be filled
+	 * @param smoothness the smoothing kernel size
+	 */
+	public void process(final Scan originalScan, final int resolution, final int fillHoleSize, final int smoothness) {
+		final int request = lastRequest.incrementAndGet();
+
+		// Wake up the previous request if it's waiting, so it's abandoned straight away
+		wakeUpWaitingRequest();
+
+		executor.execute(new Runnable() {
+			public void run() {
+				Scan scan = processRequest(request, originalScan, resolution, fillHoleSize, smoothness);
+
+				if (scan != null && !isStale(request)) {
+					publish(request, scan);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Processes a scan request. In the progressive mode a coarse preview of the scan is published first, and the
+	 * complete scan is only processed if no other request arrives in the meantime
+	 * 
+	 * @param request the request number
+	 * @param originalScan the scan to process
+	 * @param resolution the scan resolution reduction factor
+	 * @param fillHoleSize the maximum size of the holes that should be filled
+	 * @param smoothness the smoothing kernel size
+	 * @return the processed scan. Returns null if the request became stale
+	 */
+	private Scan processRequest(int request, Scan originalScan, int resolution, int fillHoleSize, int smoothness) {
+		if (isStale(request)) {
+			return null;
+		}
+
+		// Process and publish the preview straight away. The preview is not abandoned if a newer request arrives, so
+		// the previews are still updated while a controller is being dragged
+		int previewResolution = getPreviewResolution(originalScan, resolution);
+
+		if (previewResolution > resolution) {
+			float factor = resolution / (float) previewResolution;
+			Scan preview = processSteps(request, false, originalScan, previewResolution,
+					Math.round(factor * fillHoleSize), Math.round(factor * smoothness));
+			publish(request, preview);
+
+			if (isStale(request)) {
+				return null;
+			}
+		}
+
+		// Wait a bit, in case a newer request arrives
+		if (!waitWhileCurrent(request, previewResolution > resolution ? SETTLE_TIME : DEBOUNCE_TIME)) {
+			return null;
+		}
+
+		return processSteps(request, true, originalScan, resolution, fillHoleSize, smoothness);
+	}
+
+	/**
+	 * Returns the resolution reduction factor that should be used for the scan preview
+	 * 
+	 * @param originalScan the scan to process
+	 * @param resolution the requested resolution reduction factor
+	 * @return the preview resolution reduction factor. It's equal to the requested factor if the processed scan will
+	 *         have few points or the progressive mode is not active
+	 */
+	private int getPreviewResolution(Scan originalScan, int resolution) {
+		int nPoints = originalScan.countVisiblePoints();
+		int previewResolution = (int) Math.ceil(Math.sqrt(nPoints / (double) PREVIEW_MAX_POINTS));
+		return progressive ? Math.max(resolution, previewResolution) : resolution;
+	}
+
+	/**
+	 * Applies the processing steps to a scan, checking between the steps if the request has become stale. The returned
+	 * scan is a copy of the cached result, so the sketch can modify it without affecting the cache
+	 * 
+	 * @param request the request number
+	 * @param cancellable if true the processing will be abandoned if the request becomes stale
+	 * @param originalScan the scan to process
+	 * @param resolution the scan resolution reduction factor
+	 * @param fillHoleSize the maximum size of the holes that should be filled
+	 * @param smoothness the smoothing kernel size
+	 * @return the processed scan. Returns null if the processing was abandoned
+	 */
+	private Scan processSteps(int request, boolean cancellable, Scan originalScan, int resolution, int fillHoleSize,
+			int smoothness) {
+		if (cancellable && isStale(request)) {
+			return null;
+		}
+
+		// Modify the scan according to the requested values, reusing the cached steps when possible
+		Scan scan = pipeline.apply(ScanPipeline.REDUCE_RESOLUTION, originalScan, resolution);
+
+		if (cancellable && isStale(request)) {
+			return null;
+		}
+
+		scan = pipeline.apply(ScanPipeline.FILL_HOLES, scan, fillHoleSize);
+
+		if (cancellable && isStale(request)) {
+			return null;
+		}
+
+		scan = pipeline.apply(ScanPipeline.GAUSSIAN_SMOOTH, scan, smoothness);
+
+		if (cancellable && isStale(request)) {
+			return null;
+		}
+
+		// Calculate the scan point normals and return a copy that is not shared with the cache
+		return pipeline.apply(ScanPipeline.CALCULATE_NORMALS, scan, 0).copy();
+	}
+
+	/**
+	 * Checks if a request has been superseded by a newer one
+	 * 
+	 * @param request the request number
+	 * @return true if there is a newer request
+	 */
+	private boolean isStale(int request) {
+		return request != lastRequest.get();
+	}
+
+	/**
+	 * Waits until the given time has passed or a newer request arrives, whatever happens first
+	 * 
+	 * @param request the request number
+	 * @param time the maximum waiting time in milliseconds
+	 * @return true if the request is still current after the wait
+	 */
+	private synchronized boolean waitWhileCurrent(int request, long time) {
+		long deadline = System.nanoTime() + time * 1000000L;
+		long remainingTime = time;
+
+		try {
+			while (!isStale(request) && remainingTime > 0) {
+				wait(remainingTime);
+				remainingTime = (deadline - System.nanoTime()) / 1000000L;
+			}
+		} catch (InterruptedException e) {
+			return false;
+		}
+
+		return !isStale(request);
+	}
+
+	/**
+	 * Wakes up the request that is waiting for newer requests, if any
+	 */
+	private synchronized void wakeUpWaitingRequest() {
+		notifyAll();
+	}
+
+	/**
+	 * Publishes a processed scan, unless a scan from a newer request has been published already
+	 * 
+	 * @param request the request number
+	 * @param scan the processed scan
+	 */
+	private synchronized void publish(int request, Scan scan) {
+		if (request >= publishedRequest) {
+			publishedRequest = request;
+			processedScan.set(scan);
+		}
+	}
+
+	/**
+	 * Returns the last processed scan, if it has not been returned before
+	 * 
+	 * @return the last processed scan. Returns null if there is no new processed scan
+	 */
+	public Scan getProcessedScan() {
+		return processedScan.getAndSet(null);
+	}
+
+	/**
+	 * Stops the background thread, abandoning any pending request
+	 */
+	public void shutdown() {
+		lastRequest.incrementAndGet();
+		wakeUpWaitingRequest();
+		executor.shutdownNow();
+		pipeline.clear();
+	}
+}
@@ -34,11 +34,15 @@ public class ScanViewerSketch extends PApplet {
 	public boolean drawMesh = true;
 	public boolean drawLines = false;
 	public boolean drawPoints = false;
+	public boolean useNormals = true;
+	public boolean useIndexedMesh = false;
+	public boolean progressiveProcessing = true;
 	public int cursorArraySize = 300;
 
 	// Main sketch objects
 	public Scan[] scans;
 	public Scan scan;
+	public ScanProcessor scanProcessor;
 	public float startTime;
 	public PShader scanShader;
 	public PShader pointShader;
@@ -81,15 +85,17 @@ public class ScanViewerSketch extends PApplet {
 		// Adapt the scan for the sketch
 		scan.reduceResolution(startResolution);
 		scan.fillHoles(startFillHoleSize);
-		scan.gaussianSmooth(startSmothness);
+		scan.gaussianSmoothSeparable(startSmothness);
 
 		// Calculate the scan point normals
 		scan.calculateNormals();
 
-		// Calculate the scan meshes
-		scan.calculateMesh(true);
-		scan.calculatePointsMesh(true, 2);
-		scan.calculateLinesMesh(true, 1);
+		// Define the scan meshes
+		defineScanMeshes();
+
+		// Create the object that will process the scan in the background when the controllers change
+		scanProcessor = new ScanProcessor();
+		scanProcessor.setProgressive(progressiveProcessing);
 
 		// Save the starting time
 		startTime = millis();
@@ -156,11 +162,23 @@ public class ScanViewerSketch extends PApplet {
 		rotateY(rotY);
 		scale(zoom);
 
+		// Use the last processed scan if it's ready
+		Scan processedScan = scanProcessor.getProcessedScan();
+
+		if (processedScan != null && processedScan != scan) {
+			// Release the meshes of the old scan, so its GPU buffers are freed straight away
+			scan.releaseMeshes();
+			scan = processedScan;
+			defineScanMeshes();
+		}
+
 		// Update the shaders uniforms
 		updateUniforms();
 
 		// Draw the scan
-		if (drawMesh) {
+		if (drawMesh && useIndexedMesh) {
+			scan.drawIndexedMesh(scanShader);
+		} else if (drawMesh) {
 			scan.drawMesh(scanShader);
 		} else if (drawPoints) {
 			scan.drawPointsMesh(pointShader);
@@ -175,6 +193,20 @@ public class ScanViewerSketch extends PApplet {
 		camera();
 	}
 
+	/**
+	 * Defines the scan meshes. Only the mesh that is drawn will be calculated
+	 */
+	public void defineScanMeshes() {
+		if (useIndexedMesh) {
+			scan.defineIndexedMesh(useNormals);
+		} else {
+			scan.defineMesh(useNormals);
+		}
+
+		scan.definePointsMesh(useNormals, 2);
+		scan.defineLinesMesh(useNormals, 1);
+	}
+
 	/**
 	 * Updates the scan mesh, point and line shader uniforms
 	 */
@@ -322,6 +354,17 @@ public class ScanViewerSketch extends PApplet {
 		controlPanel.processEvent(event);
 	}
 
+	/**
+	 * Stops the scan processor background thread when the sketch is closed
+	 */
+	public void dispose() {
+		if (scanProcessor != null) {
+			scanProcessor.shutdown();
+		}
+
+		super.dispose();
+	}
+
 	/**
 	 * Executes the Processing sketch
 	 * 